@@ -0,0 +1,135 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada;
+
+import java.util.Arrays;
+
+/**
+ * Alignment between the offsets of a source text and its converted output.<br>
+ * The boundaries are recorded for every dictionary word and every run of characters between them,
+ * as parallel arrays of source and output offsets in UTF-16 code units. The first boundary is
+ * always (0, 0), and the last one is the end of the source and the output.
+ *
+ * <pre>{@code
+ * Alignment alignment = new Alignment();
+ * String result = converter.process("進撃の巨人", alignment); // "shingekinokyojin"
+ * alignment.toSource(10); // 3, the start of 巨人 for the "kyojin" at 10
+ * }</pre>
+ *
+ * @author Masahiko Sato
+ */
+public final class Alignment {
+    private int[] sourceOffsets = new int[16];
+    private int[] outputOffsets = new int[16];
+    private int size;
+
+    public Alignment() {
+        clear();
+    }
+
+    public void clear() {
+        size = 1;
+        sourceOffsets[0] = 0;
+        outputOffsets[0] = 0;
+    }
+
+    void add(int sourceOffset, int outputOffset) {
+        if (sourceOffsets[size - 1] == sourceOffset && outputOffsets[size - 1] == outputOffset) {
+            return;
+        }
+        if (size == sourceOffsets.length) {
+            sourceOffsets = Arrays.copyOf(sourceOffsets, size * 2);
+            outputOffsets = Arrays.copyOf(outputOffsets, size * 2);
+        }
+        sourceOffsets[size] = sourceOffset;
+        outputOffsets[size] = outputOffset;
+        size++;
+    }
+
+    /**
+     * @return The number of boundaries
+     */
+    public int size() {
+        return size;
+    }
+
+    public int sourceOffset(int index) {
+        return sourceOffsets[index];
+    }
+
+    public int outputOffset(int index) {
+        return outputOffsets[index];
+    }
+
+    /**
+     * @return The source offset of the last boundary at or before the output offset
+     */
+    public int toSource(int outputOffset) {
+        return sourceOffsets[floor(outputOffsets, outputOffset)];
+    }
+
+    /**
+     * @return The source offset of the first boundary at or after the output offset
+     */
+    public int toSourceEnd(int outputOffset) {
+        return sourceOffsets[ceiling(outputOffsets, outputOffset)];
+    }
+
+    /**
+     * @return The output offset of the last boundary at or before the source offset
+     */
+    public int toOutput(int sourceOffset) {
+        return outputOffsets[floor(sourceOffsets, sourceOffset)];
+    }
+
+    /**
+     * @return The output offset of the first boundary at or after the source offset
+     */
+    public int toOutputEnd(int sourceOffset) {
+        return outputOffsets[ceiling(sourceOffsets, sourceOffset)];
+    }
+
+    // The offsets are non-decreasing, and a run of equal offsets is resolved to its first boundary.
+    private int floor(int[] offsets, int offset) {
+        int index = Arrays.binarySearch(offsets, 0, size, offset);
+        if (index < 0) {
+            return Math.max(0, -index - 2);
+        }
+        while (index > 0 && offsets[index - 1] == offset) {
+            index--;
+        }
+        return index;
+    }
+
+    private int ceiling(int[] offsets, int offset) {
+        int index = Arrays.binarySearch(offsets, 0, size, offset);
+        if (index < 0) {
+            return Math.min(size - 1, -index - 1);
+        }
+        while (index < size - 1 && offsets[index + 1] == offset) {
+            index++;
+        }
+        return index;
+    }
+}
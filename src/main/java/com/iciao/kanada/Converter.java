@@ -0,0 +1,360 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada;
+
+import com.iciao.kanada.llm.LlmClient;
+import com.iciao.kanada.maps.KanaMapping;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+/**
+ * Immutable converter compiled from the options of a {@link Kanada} builder.<br>
+ * A single instance can be shared and used from any number of threads.
+ *
+ * <pre>{@code
+ * Converter converter = Kanada.create().toRomaji().withSpaces().build();
+ * String result = converter.process("進撃の巨人"); // "shingeki no kyojin"
+ * }</pre>
+ *
+ * @author Masahiko Sato
+ */
+public final class Converter {
+    private static final Logger LOGGER = Logger.getLogger(Converter.class.getName());
+
+    // Longest text converted with the per-thread context by process(String)
+    private static final int MAX_CONTEXT_LENGTH = 4096;
+
+    final int optionKanji;
+    final int optionHiragana;
+    final int optionKatakana;
+    final int optionWideAscii;
+    final int optionWideSymbol;
+    final int optionHalfKatakana;
+    final int optionAscii;
+    final int optionHalfSymbol;
+    final int optionBraille;
+
+    final boolean modeAddSpace;
+    final boolean modeUcFirst;
+    final boolean modeUcAll;
+    final boolean modeMacron;
+    final boolean modeShowAllYomi;
+    final boolean modeFurigana;
+    final LlmClient llmClient;
+    final KanaMapping.ConversionSystem conversionSystem;
+
+    final char settingSeparatorChar;
+    final int settingParallelism;
+    final int settingLlmConcurrency;
+    final int settingLlmPipeline;
+    // Time budget and load limit for the LLM, if any
+    final LlmBudget llmBudget;
+
+    // Whether the dictionary has to be looked up at all
+    final boolean needsDictionary;
+    // Whether the readings of dictionary words are written out
+    final boolean needsReading;
+    // Whether all the readings of a dictionary word are collected
+    final boolean needsCandidates;
+
+    final DispatchTable dispatchTable;
+
+    // Context of each thread, kept for the last converter used on the thread. A context references its
+    // converter, so it is not kept per converter, which would retain every converter ever used.
+    private static final ThreadLocal<Context> CONTEXTS = new ThreadLocal<>();
+
+    Converter(Kanada kanada) {
+        optionKanji = kanada.optionKanji;
+        optionHiragana = kanada.optionHiragana;
+        optionKatakana = kanada.optionKatakana;
+        optionWideAscii = kanada.optionWideAscii;
+        optionWideSymbol = kanada.optionWideSymbol;
+        optionHalfKatakana = kanada.optionHalfKatakana;
+        optionAscii = kanada.optionAscii;
+        optionHalfSymbol = kanada.optionHalfSymbol;
+        optionBraille = kanada.optionBraille;
+
+        modeAddSpace = kanada.modeAddSpace;
+        modeUcFirst = kanada.modeUcFirst;
+        modeUcAll = kanada.modeUcAll;
+        modeMacron = kanada.modeMacron;
+        modeShowAllYomi = kanada.modeShowAllYomi;
+        modeFurigana = kanada.modeFurigana;
+        llmClient = kanada.llmClient;
+        conversionSystem = kanada.conversionSystem;
+
+        settingSeparatorChar = kanada.settingSeparatorChar;
+        settingParallelism = kanada.settingParallelism;
+        settingLlmConcurrency = kanada.settingLlmConcurrency;
+        settingLlmPipeline = kanada.settingLlmPipeline;
+        llmBudget = llmClient != null && (kanada.settingLlmDeadline != null || kanada.settingLlmMaxInFlight > 0)
+                ? new LlmBudget(kanada.settingLlmDeadline, kanada.settingLlmMaxInFlight) : null;
+
+        needsReading = optionKanji != JMapper.AS_IS || modeFurigana || modeShowAllYomi;
+        needsDictionary = needsReading || modeAddSpace;
+        needsCandidates = modeShowAllYomi || llmClient != null;
+
+        dispatchTable = new DispatchTable(this);
+    }
+
+    public void process(Reader reader, Writer writer) {
+        process(reader, writer, null);
+    }
+
+    /**
+     * Convert the text and record the alignment between the source and the output offsets.<br>
+     * The text is parsed sequentially when an alignment is given, whatever the parallelism.
+     *
+     * @param alignment The alignment to be cleared and filled, or null
+     */
+    public void process(Reader reader, Writer writer, Alignment alignment) {
+        if (reader == null || writer == null) {
+            throw new IllegalArgumentException("Reader and Writer must not be null");
+        }
+        try {
+            long deadline = llmBudget != null ? llmBudget.newDeadline() : LlmBudget.NO_DEADLINE;
+            ReadingResolver resolver = null;
+            if (isTwoPass()) {
+                // Collect the ambiguous words of the whole text and resolve them before converting it.
+                String text = readAll(reader);
+                resolver = new ReadingResolver();
+                KanjiParser collector = new KanjiParser(new JWriter(this), llmClient);
+                collector.resolver = resolver;
+                collector.parse(new StringReader(text), Writer.nullWriter());
+                resolver.resolve(llmClient, settingLlmConcurrency, deadline);
+                reader = new StringReader(text);
+            }
+            if (settingParallelism > 1 && alignment == null) {
+                ParallelParser parser = new ParallelParser(this, settingParallelism);
+                parser.resolver = resolver;
+                parser.deadline = deadline;
+                parser.parse(reader, writer);
+            } else {
+                JWriter jWriter = new JWriter(this);
+                if (alignment != null) {
+                    alignment.clear();
+                    jWriter.alignment = alignment;
+                }
+                KanjiParser parser = new KanjiParser(jWriter, llmClient);
+                parser.resolver = resolver;
+                parser.deadline = deadline;
+                if (alignment == null) {
+                    parser.pipeline = settingLlmPipeline;
+                }
+                parser.parse(reader, writer);
+            }
+        } catch (Exception e) {
+            LOGGER.warning(e.getMessage());
+        }
+    }
+
+    private boolean isTwoPass() {
+        return settingLlmConcurrency > 0 && llmClient != null && needsReading;
+    }
+
+    private boolean isPipelined() {
+        return settingLlmPipeline > 0 && llmClient != null && needsReading;
+    }
+
+    private static String readAll(Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] chars = new char[8192];
+        int read;
+        while ((read = reader.read(chars)) != -1) {
+            text.append(chars, 0, read);
+        }
+        return text.toString();
+    }
+
+    public String process(Reader reader) {
+        if (reader == null) {
+            throw new IllegalArgumentException("Reader must not be null");
+        }
+        StringWriter writer = new StringWriter();
+        process(reader, writer);
+        return writer.toString();
+    }
+
+    /**
+     * Wrap a reader so that its text is converted lazily as it is read.<br>
+     * The text is parsed sequentially, whatever the parallelism.
+     *
+     * @return A reader of the converted text, which closes the source reader when closed
+     */
+    public Reader wrap(Reader reader) {
+        if (reader == null) {
+            throw new IllegalArgumentException("Reader must not be null");
+        }
+        return new ConvertingReader(this, reader);
+    }
+
+    /**
+     * Split a text into tokens with their readings and converted forms.
+     *
+     * @return An iterator that reuses the same {@link Token} for every token
+     */
+    public TokenIterator tokenize(CharSequence text) {
+        if (text == null) {
+            throw new IllegalArgumentException("Text must not be null");
+        }
+        return new TokenIterator(this, text);
+    }
+
+    public String process(String str) {
+        if (str == null) {
+            return null;
+        }
+        if (str.length() <= MAX_CONTEXT_LENGTH && !isTwoPass() && !isPipelined()) {
+            return context().convert(str, 0, str.length()).toString();
+        }
+        StringReader reader = new StringReader(str);
+        return process(reader);
+    }
+
+    /**
+     * Convert a part of a text into a char array, reusing the parser and the buffers of the calling thread.<br>
+     * This is meant for many short texts, such as the fields of records. The text is parsed sequentially.
+     *
+     * @return The number of characters written, or the negated number of characters required when they
+     * do not fit in the array, in which case nothing is written
+     */
+    public int convert(CharSequence src, int off, int len, char[] dst, int dstOff) {
+        if (src == null || dst == null) {
+            throw new IllegalArgumentException("Source and destination must not be null");
+        }
+        Objects.checkFromIndexSize(off, len, src.length());
+        Objects.checkIndex(dstOff, dst.length + 1);
+        StringBuilder converted = context().convert(src, off, off + len);
+        int count = converted.length();
+        if (count > dst.length - dstOff) {
+            return -count;
+        }
+        converted.getChars(0, count, dst, dstOff);
+        return count;
+    }
+
+    /**
+     * Convert a text into a char buffer, reusing the parser and the buffers of the calling thread.
+     *
+     * @return The number of characters written, or the negated number of characters required when they
+     * do not fit in the remaining space, in which case the buffer is not changed
+     * @see #convert(CharSequence, int, int, char[], int)
+     */
+    public int convert(CharSequence src, CharBuffer dst) {
+        if (src == null || dst == null) {
+            throw new IllegalArgumentException("Source and destination must not be null");
+        }
+        StringBuilder converted = context().convert(src, 0, src.length());
+        int count = converted.length();
+        if (count > dst.remaining()) {
+            return -count;
+        }
+        dst.append(converted);
+        return count;
+    }
+
+    private Context context() {
+        Context context = CONTEXTS.get();
+        if (context != null && context.converter == this && !context.isBusy) {
+            return context;
+        }
+        Context newContext = new Context(this);
+        // A mapper may convert a part of the text again while the context is in use.
+        if (context == null || !context.isBusy) {
+            CONTEXTS.set(newContext);
+        }
+        return newContext;
+    }
+
+    // Parser and buffers reused by a thread
+    private static final class Context {
+        private final Converter converter;
+        private final JWriter jWriter;
+        private final KanjiParser parser;
+        private final LlmBudget llmBudget;
+        private final StringBuilder output = new StringBuilder();
+        private boolean isBusy;
+        private final Writer[] writers = {new Writer() {
+            @Override
+            public Writer append(CharSequence csq) {
+                output.append(csq);
+                return this;
+            }
+
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+                output.append(cbuf, off, len);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        }};
+
+        private Context(Converter converter) {
+            this.converter = converter;
+            jWriter = new JWriter(converter);
+            parser = new KanjiParser(jWriter, converter.llmClient);
+            llmBudget = converter.llmBudget;
+        }
+
+        private StringBuilder convert(CharSequence src, int start, int end) {
+            output.setLength(0);
+            jWriter.reset();
+            parser.deadline = llmBudget != null ? llmBudget.newDeadline() : LlmBudget.NO_DEADLINE;
+            parser.begin(src, start, end, writers);
+            isBusy = true;
+            try {
+                while (parser.step()) {
+                    // Parse to the end
+                }
+            } catch (Exception e) {
+                LOGGER.warning(e.getMessage());
+            } finally {
+                isBusy = false;
+            }
+            return output;
+        }
+    }
+
+    public String process(String str, Alignment alignment) {
+        if (str == null) {
+            return null;
+        }
+        StringWriter writer = new StringWriter();
+        process(new StringReader(str), writer, alignment);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * Reader that converts the text of another reader as it is read.<br>
+ * The source is read only as far as needed to produce the requested characters. The converted text is
+ * held until the end of the sentence, so the buffering is bounded by the longest sentence or line.
+ *
+ * @author Masahiko Sato
+ */
+class ConvertingReader extends Reader {
+    private final Reader source;
+    private final KanjiParser parser;
+    private final StringWriter output = new StringWriter();
+    private int outputPosition;
+    private boolean finished;
+
+    ConvertingReader(Converter converter, Reader source) {
+        this.source = source;
+        parser = new KanjiParser(new JWriter(converter), converter.llmClient);
+        parser.begin(source, new Writer[]{output}, "", Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > cbuf.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        StringBuffer converted = output.getBuffer();
+        while (outputPosition == converted.length()) {
+            if (finished) {
+                return -1;
+            }
+            converted.setLength(0);
+            outputPosition = 0;
+            try {
+                if (parser.isAtSentenceEnd()) {
+                    parser.flush();
+                }
+                finished = !parser.step();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+        int count = Math.min(len, converted.length() - outputPosition);
+        converted.getChars(outputPosition, outputPosition + count, cbuf, off);
+        outputPosition += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        outputPosition = output.getBuffer().length();
+        source.close();
+    }
+}
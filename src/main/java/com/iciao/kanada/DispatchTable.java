@@ -0,0 +1,262 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada;
+
+import com.iciao.kanada.maps.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dispatch table compiled from the options of a converter.<br>
+ * Every BMP character belongs to a character class, and each class is either mapped by one mapper
+ * or passed through. Runs of characters that are passed through or shifted by a constant offset are
+ * converted in bulk, and mappers that map one character at a time have their output cached per character.
+ *
+ * @author Masahiko Sato
+ */
+final class DispatchTable {
+    private static final int PASS_THROUGH = 0;
+    private static final int BASIC_LATIN = 1;
+    private static final int LATIN_1_SUPPLEMENT = 2;
+    private static final int WIDE_ASCII = 3;
+    private static final int HALF_KATAKANA = 4;
+    private static final int CJK_SYMBOLS = 5;
+    private static final int HIRAGANA = 6;
+    private static final int KATAKANA = 7;
+    private static final int KATAKANA_EXTENSIONS = 8;
+    private static final int BRAILLE = 9;
+    private static final int CLASS_COUNT = 10;
+
+    private static final int MAX_MAPPED_READINGS = 1 << 16;
+
+    private static final byte[] CHAR_CLASSES = new byte[Character.MAX_VALUE + 1];
+    private static final int[] CLASS_FIRST = new int[CLASS_COUNT];
+    private static final int[] CLASS_SIZE = new int[CLASS_COUNT];
+
+    static {
+        for (int c = Character.MAX_VALUE; c >= 0; c--) {
+            int charClass = classify(c);
+            CHAR_CLASSES[c] = (byte) charClass;
+            if (CLASS_SIZE[charClass] == 0) {
+                CLASS_SIZE[charClass] = c + 1;
+            }
+            CLASS_FIRST[charClass] = c;
+        }
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            CLASS_SIZE[i] -= CLASS_FIRST[i];
+        }
+    }
+
+    private final JMapper[] mappers = new JMapper[CLASS_COUNT];
+    // Characters from shiftFirst to shiftLast of each class are converted by adding shiftOffset.
+    private final char[] shiftFirst = new char[CLASS_COUNT];
+    private final char[] shiftLast = new char[CLASS_COUNT];
+    private final int[] shiftOffset = new int[CLASS_COUNT];
+    // Written by whichever thread maps a character first; the cached strings are immutable.
+    private final String[][] outputs = new String[CLASS_COUNT][];
+    private final Map<String, String> mappedReadings = new ConcurrentHashMap<>();
+
+    DispatchTable(Converter converter) {
+        if (converter.optionAscii == JMapper.TO_WIDE_ASCII || converter.optionAscii == JMapper.TO_KANA_BRAILLE) {
+            mappers[BASIC_LATIN] = new MapAscii(converter, converter.optionAscii);
+        }
+        if (converter.optionAscii == JMapper.TO_WIDE_ASCII) {
+            mappers[LATIN_1_SUPPLEMENT] = new MapHalfSymbol(converter, converter.optionAscii);
+        }
+        if (converter.optionWideAscii == JMapper.TO_ASCII) {
+            mappers[WIDE_ASCII] = new MapWideAscii(converter, converter.optionWideAscii);
+        }
+        switch (converter.optionHalfKatakana) {
+            case JMapper.TO_WIDE_ASCII, JMapper.TO_ASCII, JMapper.TO_KATAKANA, JMapper.TO_HIRAGANA ->
+                    mappers[HALF_KATAKANA] = new MapHalfKatakana(converter, converter.optionHalfKatakana);
+        }
+        switch (converter.optionWideSymbol) {
+            case JMapper.TO_ASCII, JMapper.TO_HALF_SYMBOL, JMapper.TO_KANA_BRAILLE ->
+                    mappers[CJK_SYMBOLS] = new MapWideSymbol(converter, converter.optionWideSymbol);
+        }
+        switch (converter.optionHiragana) {
+            case JMapper.TO_KATAKANA, JMapper.TO_HALF_KATAKANA, JMapper.TO_ASCII, JMapper.TO_WIDE_ASCII, JMapper.TO_KANA_BRAILLE ->
+                    mappers[HIRAGANA] = new MapHiragana(converter, converter.optionHiragana);
+        }
+        switch (converter.optionKatakana) {
+            case JMapper.TO_HIRAGANA, JMapper.TO_HALF_KATAKANA, JMapper.TO_ASCII, JMapper.TO_WIDE_ASCII, JMapper.TO_KANA_BRAILLE -> {
+                mappers[KATAKANA] = new MapKatakana(converter, converter.optionKatakana);
+                mappers[KATAKANA_EXTENSIONS] = mappers[KATAKANA];
+            }
+        }
+        mappers[BRAILLE] = new MapBraille(converter, converter.optionBraille);
+
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            if (mappers[i] == null) {
+                shiftLast[i] = Character.MAX_VALUE;
+                continue;
+            }
+            int[] shift = mappers[i].getShift();
+            if (shift != null) {
+                shiftFirst[i] = (char) shift[0];
+                shiftLast[i] = (char) shift[1];
+                shiftOffset[i] = shift[2];
+            } else {
+                shiftFirst[i] = 1; // empty range
+            }
+            if (mappers[i].isSingleCharMapping()) {
+                outputs[i] = new String[CLASS_SIZE[i]];
+            }
+        }
+    }
+
+    private static int classify(int c) {
+        Character.UnicodeBlock block = Character.UnicodeBlock.of(c);
+        if (block == Character.UnicodeBlock.BASIC_LATIN) {
+            return BASIC_LATIN;
+        } else if (block == Character.UnicodeBlock.LATIN_1_SUPPLEMENT) {
+            return LATIN_1_SUPPLEMENT;
+        } else if (block == Character.UnicodeBlock.HALFWIDTH_AND_FULLWIDTH_FORMS) {
+            if (c < 0xff61 || c > 0xffdf) {
+                return WIDE_ASCII;
+            } else if (c < 0xffa0) {
+                return HALF_KATAKANA;
+            }
+        } else if (block == Character.UnicodeBlock.CJK_SYMBOLS_AND_PUNCTUATION) {
+            return CJK_SYMBOLS;
+        } else if (block == Character.UnicodeBlock.HIRAGANA) {
+            return HIRAGANA;
+        } else if (block == Character.UnicodeBlock.KATAKANA) {
+            return KATAKANA;
+        } else if (block == Character.UnicodeBlock.KATAKANA_PHONETIC_EXTENSIONS) {
+            return KATAKANA_EXTENSIONS;
+        } else if (block == Character.UnicodeBlock.BRAILLE_PATTERNS && c < 0x2840) {
+            return BRAILLE;
+        }
+        return PASS_THROUGH;
+    }
+
+    /**
+     * Map all the characters of src.
+     *
+     * @param chars A work area at least as long as src
+     */
+    void mapAll(CharSequence src, char[] chars, StringBuilder out) throws IOException {
+        mapAll(src, chars, out, null);
+    }
+
+    /**
+     * Map all the characters of src, and record where the output can be split.
+     *
+     * @param units The alignment to which the offsets in src and out after each mapped character or
+     *              sequence of characters are added, or null
+     */
+    void mapAll(CharSequence src, char[] chars, StringBuilder out, Alignment units) throws IOException {
+        int totalLen = src.length();
+        for (int i = 0; i < totalLen; i++) {
+            chars[i] = src.charAt(i);
+        }
+        for (int i = 0; i < totalLen; ) {
+            int shifted = shift(chars, i, totalLen);
+            if (shifted > 0) {
+                out.append(chars, i, shifted);
+                if (units != null) {
+                    // Shifted characters are mapped one to one.
+                    int outEnd = out.length();
+                    for (int j = 1; j <= shifted; j++) {
+                        units.add(i + j, outEnd - shifted + j);
+                    }
+                }
+                i += shifted;
+            } else {
+                i += map(src, i, out);
+                if (units != null) {
+                    units.add(i, out.length());
+                }
+            }
+        }
+    }
+
+    /**
+     * Map the reading of a dictionary word.<br>
+     * A reading is mapped on its own, so the result is cached and reused for every occurrence of the word.
+     */
+    String mapReading(String yomi) throws IOException {
+        String mappedYomi = mappedReadings.get(yomi);
+        if (mappedYomi == null) {
+            StringBuilder out = new StringBuilder(yomi.length() * 2);
+            mapAll(yomi, new char[yomi.length()], out);
+            mappedYomi = out.toString();
+            if (mappedReadings.size() < MAX_MAPPED_READINGS) {
+                mappedReadings.put(yomi, mappedYomi);
+            }
+        }
+        return mappedYomi;
+    }
+
+    /**
+     * Convert the characters that are passed through or shifted by a constant offset in place,
+     * up to the first character that needs a mapper.
+     *
+     * @return The number of characters converted
+     */
+    int shift(char[] chars, int start, int end) {
+        int i = start;
+        for (; i < end; i++) {
+            char c = chars[i];
+            int charClass = CHAR_CLASSES[c];
+            if (c < shiftFirst[charClass] || c > shiftLast[charClass]) {
+                break;
+            }
+            chars[i] = (char) (c + shiftOffset[charClass]);
+        }
+        return i - start;
+    }
+
+    /**
+     * Map the characters of src starting at the given position.
+     *
+     * @return The number of characters consumed from src
+     */
+    int map(CharSequence src, int start, StringBuilder out) throws IOException {
+        char thisChar = src.charAt(start);
+        int charClass = CHAR_CLASSES[thisChar];
+        JMapper mapper = mappers[charClass];
+        if (mapper == null) {
+            out.append(thisChar);
+            return 1;
+        }
+        String[] cache = outputs[charClass];
+        if (cache == null) {
+            return mapper.process(src, start, out);
+        }
+        int index = thisChar - CLASS_FIRST[charClass];
+        String mapped = cache[index];
+        if (mapped == null) {
+            StringBuilder sb = new StringBuilder(2);
+            mapper.process(String.valueOf(thisChar), 0, sb);
+            mapped = sb.toString();
+            cache[index] = mapped;
+        }
+        out.append(mapped);
+        return 1;
+    }
+}
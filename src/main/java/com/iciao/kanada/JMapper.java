@@ -25,6 +25,8 @@ package com.iciao.kanada;
 
 import com.iciao.kanada.maps.KanaMapping;
 
+import java.io.IOException;
+
 /**
  * Remap non-kanji characters.<br>
  *
@@ -41,33 +43,61 @@ public abstract class JMapper {
     public static final int TO_HALF_SYMBOL = 6;
     public static final int TO_KANA_BRAILLE = 7;
 
-    protected Kanada kanada;
-    protected String outStr;
-    protected int matchedLength = 1;
+    protected final Converter converter;
+    protected final int option;
 
-    public JMapper(Kanada kanada) {
-        this.kanada = kanada;
+    /**
+     * Mappers hold no state of their own, so one instance per converter is shared by all its threads.
+     *
+     * @param converter The converter whose settings apply
+     * @param option    The target of the mapping, e.g. {@link #TO_HIRAGANA}
+     */
+    public JMapper(Converter converter, int option) {
+        this.converter = converter;
+        this.option = option;
     }
 
     protected KanaMapping.ConversionSystem getConversionSystem() {
-        return kanada.conversionSystem;
+        return converter.conversionSystem;
     }
 
     protected boolean modeMacron() {
-        return kanada.modeMacron;
+        return converter.modeMacron;
     }
 
-    protected String getString() {
-        return outStr;
+    /**
+     * Whether every character is mapped on its own, regardless of the characters around it.<br>
+     * The output of such mappers is cached per character.
+     */
+    protected boolean isSingleCharMapping() {
+        return false;
     }
 
-    protected int getProcessedLength() {
-        return matchedLength;
+    /**
+     * The characters this mapper maps by adding a constant offset, regardless of the characters around them.<br>
+     * Runs of such characters are converted in bulk.
+     *
+     * @return {first, last, offset}, or null if no character is mapped that way
+     */
+    protected int[] getShift() {
+        return null;
     }
 
-    protected void setString(String str) {
-        outStr = str;
+    protected static void appendCodePoint(Appendable out, int codePoint) throws IOException {
+        if (Character.isBmpCodePoint(codePoint)) {
+            out.append((char) codePoint);
+        } else {
+            out.append(Character.highSurrogate(codePoint)).append(Character.lowSurrogate(codePoint));
+        }
     }
 
-    protected abstract void process(String str, int param);
+    /**
+     * Map the characters of src starting at the given position.
+     *
+     * @param src   The text to map
+     * @param start The position of the first character to map
+     * @param out   The destination of the mapped characters
+     * @return The number of characters consumed from src
+     */
+    protected abstract int process(CharSequence src, int start, Appendable out) throws IOException;
 }
@@ -23,8 +23,6 @@
  */
 package com.iciao.kanada;
 
-import com.iciao.kanada.maps.*;
-
 import java.io.IOException;
 import java.io.Writer;
 import java.util.Locale;
@@ -36,14 +34,22 @@ import java.util.StringTokenizer;
  * @author Masahiko Sato
  */
 class JWriter {
-    protected Kanada kanada;
+    protected Converter converter;
     protected StringBuilder buffer = new StringBuilder();
+    // Output of the characters already mapped since the last flush
+    private final StringBuilder mapped = new StringBuilder();
+    private char[] chars = new char[0];
     protected int tail;
     private boolean isTail;
+    // Records the offsets at every flush when set
+    protected Alignment alignment;
+    private int outputLength;
+    // Records the offsets in the buffer and the output where the output can be split when set
+    protected Alignment units;
 
-    protected JWriter(Kanada kanada) {
+    protected JWriter(Converter converter) {
         this.clear();
-        this.kanada = kanada;
+        this.converter = converter;
         tail = ' ';
         isTail = false;
     }
@@ -60,157 +66,129 @@ class JWriter {
         return buffer.append(str);
     }
 
+    /**
+     * Append a string that is already mapped for the converter, such as a cached reading.
+     */
+    protected void appendMapped(String str) throws IOException {
+        mapBuffer();
+        mapped.append(str);
+    }
+
+    /**
+     * @return The last character appended since the last flush, or -1 if none
+     */
+    protected int lastChar() {
+        if (!buffer.isEmpty()) {
+            return buffer.charAt(buffer.length() - 1);
+        }
+        return mapped.isEmpty() ? -1 : mapped.charAt(mapped.length() - 1);
+    }
+
     protected void flushBuffer(Writer writer) throws IOException {
         if (writer == null) {
             throw new IllegalArgumentException("Writer must not be null");
         }
-        if (buffer.isEmpty()) {
+        if (buffer.isEmpty() && mapped.isEmpty()) {
             return;
         }
-        String converted = map().toString();
-        writer.write(converted);
+        StringBuilder converted = map();
+        writer.append(converted);
         writer.flush();
+        outputLength += converted.length();
         clear();
     }
 
+    /**
+     * Flush the buffer, which holds the source text up to the given offset.
+     */
+    protected void flushBuffer(Writer writer, int sourceOffset) throws IOException {
+        flushBuffer(writer);
+        if (alignment != null) {
+            alignment.add(sourceOffset, outputLength);
+        }
+    }
+
+    /**
+     * Convert the buffer as {@link #flushBuffer(Writer)} does, but return the output instead of writing it.<br>
+     * The state is left unchanged, so that the alternative outputs of a word can be rendered at the same
+     * position, until one of them is taken by {@link #advance(int)}.
+     */
+    protected String render() throws IOException {
+        boolean wasTail = isTail;
+        String rendered = map().toString();
+        clear();
+        isTail = wasTail;
+        return rendered;
+    }
+
+    /**
+     * Update the state as if an output rendered with the given tail was flushed.
+     */
+    protected void advance(int tail) {
+        isTail = tail != ' ';
+        this.tail = ' ';
+    }
+
     protected void clear() {
         buffer.setLength(0);
+        mapped.setLength(0);
     }
 
-    protected Kanada getKanada() {
-        return kanada;
+    /**
+     * Reset the state so that the writer can be reused for another text.
+     */
+    protected void reset() {
+        clear();
+        tail = ' ';
+        isTail = false;
+        alignment = null;
+        outputLength = 0;
     }
 
-    private StringBuilder map() {
-        StringBuilder mappedStr = new StringBuilder();
-        StringBuilder outStr = new StringBuilder();
-        int totalLen = buffer.length();
-        String workStr;
-
-        for (int i = 0; i < totalLen; i++) {
-            int thisChar = buffer.codePointAt(i);
-            Character.UnicodeBlock block = Character.UnicodeBlock.of(thisChar);
-            workStr = buffer.substring(i, buffer.length());
-            JMapper mappedMapper = null;
-
-            if (block == Character.UnicodeBlock.BASIC_LATIN) {
-                if (kanada.optionAscii == JMapper.TO_WIDE_ASCII || kanada.optionAscii == JMapper.TO_KANA_BRAILLE) {
-                    JMapper ascii = new MapAscii(kanada);
-                    ascii.process(workStr, kanada.optionAscii);
-                    mappedMapper = ascii;
-                } else {
-                    mappedStr.appendCodePoint(thisChar);
-                }
-            } else if (block == Character.UnicodeBlock.LATIN_1_SUPPLEMENT) {
-                if (kanada.optionAscii == JMapper.TO_WIDE_ASCII) {
-                    JMapper halfSymbol = new MapHalfSymbol(kanada);
-                    halfSymbol.process(workStr, kanada.optionAscii);
-                    mappedMapper = halfSymbol;
-                } else {
-                    mappedStr.appendCodePoint(thisChar);
-                }
-            } else if (block == Character.UnicodeBlock.HALFWIDTH_AND_FULLWIDTH_FORMS) {
-                if (thisChar < 0xff61 || thisChar > 0xffdf) {
-                    if (kanada.optionWideAscii == JMapper.TO_ASCII) {
-                        JMapper wideAscii = new MapWideAscii(kanada);
-                        wideAscii.process(workStr, kanada.optionWideAscii);
-                        mappedMapper = wideAscii;
-                    } else {
-                        mappedStr.appendCodePoint(thisChar);
-                    }
-                } else if (thisChar < 0xffa0) {
-                    switch (kanada.optionHalfKatakana) {
-                        case JMapper.TO_WIDE_ASCII:
-                        case JMapper.TO_ASCII:
-                        case JMapper.TO_KATAKANA:
-                        case JMapper.TO_HIRAGANA:
-                            JMapper halfKatakana = new MapHalfKatakana(kanada);
-                            halfKatakana.process(workStr, kanada.optionHalfKatakana);
-                            mappedMapper = halfKatakana;
-                            break;
-                        default:
-                            mappedStr.appendCodePoint(thisChar);
-                            break;
-                    }
-                }
-            } else if (block == Character.UnicodeBlock.CJK_SYMBOLS_AND_PUNCTUATION) {
-                switch (kanada.optionWideSymbol) {
-                    case JMapper.TO_ASCII:
-                    case JMapper.TO_HALF_SYMBOL:
-                    case JMapper.TO_KANA_BRAILLE:
-                        JMapper wideSymbol = new MapWideSymbol(kanada);
-                        wideSymbol.process(workStr, kanada.optionWideSymbol);
-                        mappedMapper = wideSymbol;
-                        break;
-                    default:
-                        mappedStr.appendCodePoint(thisChar);
-                        break;
-                }
-            } else if (block == Character.UnicodeBlock.HIRAGANA) {
-                switch (kanada.optionHiragana) {
-                    case JMapper.TO_KATAKANA:
-                    case JMapper.TO_HALF_KATAKANA:
-                    case JMapper.TO_ASCII:
-                    case JMapper.TO_WIDE_ASCII:
-                    case JMapper.TO_KANA_BRAILLE:
-                        JMapper hiragana = new MapHiragana(kanada);
-                        hiragana.process(workStr, kanada.optionHiragana);
-                        mappedMapper = hiragana;
-                        break;
-                    default:
-                        mappedStr.appendCodePoint(thisChar);
-                        break;
-                }
-            } else if (block == Character.UnicodeBlock.KATAKANA
-                    || block == Character.UnicodeBlock.KATAKANA_PHONETIC_EXTENSIONS) {
-                switch (kanada.optionKatakana) {
-                    case JMapper.TO_HIRAGANA:
-                    case JMapper.TO_HALF_KATAKANA:
-                    case JMapper.TO_ASCII:
-                    case JMapper.TO_WIDE_ASCII:
-                    case JMapper.TO_KANA_BRAILLE:
-                        JMapper katakana = new MapKatakana(kanada);
-                        katakana.process(workStr, kanada.optionKatakana);
-                        mappedMapper = katakana;
-                        break;
-                    default:
-                        mappedStr.appendCodePoint(thisChar);
-                        break;
-                }
-            } else if (block == Character.UnicodeBlock.BRAILLE_PATTERNS) {
-                if (thisChar < 0x2840) {
-                    JMapper braille = new MapBraille(kanada);
-                    braille.process(workStr, kanada.optionBraille);
-                    mappedMapper = braille;
-                } else {
-                    mappedStr.appendCodePoint(thisChar);
-                }
-            } else {
-                mappedStr.appendCodePoint(thisChar);
-            }
+    protected Converter getConverter() {
+        return converter;
+    }
 
-            if (mappedMapper != null) {
-                mappedStr.append(mappedMapper.getString());
-                i = i + mappedMapper.getProcessedLength() - 1;
-            }
-            outStr.append(mappedStr);
-            mappedStr.setLength(0);
+    private void mapBuffer() throws IOException {
+        if (chars.length < buffer.length()) {
+            chars = new char[buffer.length()];
         }
+        converter.dispatchTable.mapAll(buffer, chars, mapped, units);
+        buffer.setLength(0);
+    }
 
-        if (kanada.modeUcAll) {
+    private StringBuilder map() throws IOException {
+        int sourceLength = buffer.length();
+        mapBuffer();
+        StringBuilder outStr = mapped;
+        int mappedLength = outStr.length();
+
+        if (converter.modeUcAll) {
             String upperCased = outStr.toString().toUpperCase(Locale.ENGLISH);
             outStr.setLength(0);
             outStr.append(upperCased);
-        } else if (kanada.modeUcFirst && !isTail) {
+        } else if (converter.modeUcFirst) {
             StringBuilder sb = new StringBuilder();
             StringTokenizer token = new StringTokenizer(outStr.toString(), " \t\n\r\f", true);
+            // The first word continues the okurigana of the previous word, if any.
+            boolean isContinued = isTail;
             while (token.hasMoreTokens()) {
                 String word = token.nextToken();
-                sb.append(word.substring(0, 1).toUpperCase(Locale.ENGLISH)).append(word.substring(1));
+                if (isContinued) {
+                    sb.append(word);
+                    isContinued = false;
+                } else {
+                    sb.append(word.substring(0, 1).toUpperCase(Locale.ENGLISH)).append(word.substring(1));
+                }
             }
             outStr.setLength(0);
             outStr.append(sb);
         }
+        if (units != null && outStr.length() != mappedLength) {
+            // The case mapping changed the length, so the output can no longer be split.
+            units.clear();
+            units.add(sourceLength, outStr.length());
+        }
 
         isTail = tail != ' ';
         tail = ' ';
@@ -23,15 +23,22 @@
  */
 package com.iciao.kanada;
 
+import com.iciao.kanada.llm.CachingLlmClient;
 import com.iciao.kanada.llm.LlmClient;
 import com.iciao.kanada.llm.LlmClientFactory;
+import com.iciao.kanada.llm.ResilientLlmClient;
 import com.iciao.kanada.maps.KanaMapping;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.StandardCharsets;
 import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.logging.Logger;
 
 /**
@@ -52,11 +59,25 @@ import java.util.logging.Logger;
  *     .upperCaseFirst();
  * String result = converter.process("東京都"); // "Tokyo To"
  * }</pre>
+ * The builder keeps the converter of its options for the next conversions, together with its caches of the
+ * mapped characters and readings and its LLM budget, until an option is changed. A builder created for every
+ * conversion starts with empty caches each time.
+ *
+ * <h3>Shared Usage:</h3>
+ * <pre>{@code
+ * Converter converter = Kanada.create()
+ *     .toRomaji()
+ *     .withSpaces()
+ *     .build(); // immutable and thread-safe
+ * String result = converter.process("東京都"); // "tokyo to"
+ * }</pre>
  *
  * @author Masahiko Sato
  */
 public class Kanada {
     private static final Logger LOGGER = Logger.getLogger(Kanada.class.getName());
+    // Number of LLM readings kept in memory by the CLI
+    private static final int CACHE_CAPACITY = 10000;
 
     protected int optionKanji;
     protected int optionHiragana;
@@ -78,6 +99,14 @@ public class Kanada {
     protected KanaMapping.ConversionSystem conversionSystem = KanaMapping.ConversionSystem.MODIFIED_HEPBURN;
 
     protected char settingSeparatorChar = ' ';
+    protected int settingParallelism = 1;
+    protected int settingLlmConcurrency = 0;
+    protected int settingLlmPipeline = 0;
+    protected Duration settingLlmDeadline = null;
+    protected int settingLlmMaxInFlight = 0;
+
+    // Converter of the current options, built on first use and cleared when an option is changed
+    private volatile Converter converter;
 
     public Kanada() throws IOException {
         setParam(
@@ -102,27 +131,15 @@ public class Kanada {
     }
 
     public static String toRomaji(String text) {
-        try {
-            return new Kanada().toRomaji().withSpaces().process(text);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return Defaults.ROMAJI.process(text);
     }
 
     public static String toHiragana(String text) {
-        try {
-            return new Kanada().toHiragana().process(text);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return Defaults.HIRAGANA.process(text);
     }
 
     public static String toKatakana(String text) {
-        try {
-            return new Kanada().toKatakana().process(text);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return Defaults.KATAKANA.process(text);
     }
 
     public static void main(String[] args) {
@@ -147,12 +164,25 @@ public class Kanada {
                         -R           Add all possible readings for kanji words
                         -i <charset> Set input charset (Default: UTF-8)
                         -o <charset> Set output charset (Default: UTF-8)
+                        -p <threads> Convert large input in parallel using the given number of threads
                     
                     Options for AI-assisted conversion:
                         --openai     Use OpenAI for LLM service
                         --claude     Use Claude for LLM service
                         --ollama     Use Ollama for LLM service
                         --lmstudio   Use LM Studio for LLM service
+                        --llm-cache <file>
+                                     Keep the readings selected by the LLM in the given file
+                                     and reuse them in later runs
+                        --llm-concurrency <requests>
+                                     Resolve the ambiguous words of the whole input first,
+                                     sending up to the given number of requests at a time
+                        --llm-pipeline <requests>
+                                     Keep converting while waiting for the LLM, with up to
+                                     the given number of requests in flight
+                        --llm-deadline <milliseconds>
+                                     Stop consulting the LLM when the given time has passed,
+                                     and use the dictionary readings instead
                     
                     Input:
                         The program reads from standard input via piping or redirection.
@@ -198,12 +228,30 @@ public class Kanada {
                       }
                     }
                     
+                    - Each request to a provider times out after "requestTimeout" seconds, and no more
+                      than "maxConcurrentRequests" requests are sent to it at a time.
+                    
+                    - The readings are numbered in the prompts, and the model answers with a number.
+                      "maxAnswerTokens" caps the tokens generated for each word, and "structuredOutput"
+                      constrains the answer to a JSON schema where the provider supports it.
+                      For the reasoning models of OpenAI, the cap includes the reasoning tokens.
+                      With "stream", the answer is read only until it identifies a reading.
+                    
                     - The API keys for OpenAI and Claude must be set as environment variables:
                       OPENAI_API_KEY and ANTHROPIC_API_KEY respectively.
                     
                     - Rate-limit and token-limit:
-                      This library does not currently manage request rates.
-                      Be aware of the rate limits and token limits of the LLM service you use.
+                      The requests are limited by "rateLimits" for each provider and model:
+                        "rateLimits": {
+                          "requestsPerSecond": 8,
+                          "tokensPerMinute": 200000,
+                          "maxWait": 60,
+                          "tokenBudget": 1000000
+                        }
+                      A request waits for up to "maxWait" seconds to be sent within the limits.
+                      Once "tokenBudget" tokens are spent in a run, the dictionary readings are used.
+                      The tokens are estimated from the size of the requests.
+                      Set the limits to those of your account with the LLM service you use.
                       Excessive requests may result in temporary bans or additional charges.
                     """);
 
@@ -218,11 +266,16 @@ public class Kanada {
         boolean macrons = false;
         boolean furigana = false;
         boolean allYomi = false;
+        int parallelism = 1;
 
         Charset inputCharset = StandardCharsets.UTF_8;
         Charset outputCharset = StandardCharsets.UTF_8;
         LlmClientFactory.LlmProvider llmProvider = null;
         String inputFilename = null;
+        String llmCacheFilename = null;
+        int llmConcurrency = 0;
+        int llmPipeline = 0;
+        int llmDeadline = 0;
 
         for (int i = 1; i < args.length; i++) {
             // If this is the last argument and not an option, treat as file name
@@ -269,29 +322,120 @@ public class Kanada {
                         System.exit(1);
                     }
                 }
+                // Parallel conversion
+                case "-p" -> {
+                    if (i + 1 >= args.length || args[i + 1].startsWith("-")) {
+                        System.err.println("Missing number of threads for -p option");
+                        System.exit(1);
+                    }
+                    try {
+                        parallelism = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        parallelism = 0;
+                    }
+                    if (parallelism < 1) {
+                        System.err.println("Invalid number of threads for -p option: " + args[i]);
+                        System.exit(1);
+                    }
+                }
                 // AI-assist options
                 case "--openai" -> llmProvider = LlmClientFactory.LlmProvider.OPENAI;
                 case "--claude" -> llmProvider = LlmClientFactory.LlmProvider.CLAUDE;
                 case "--ollama" -> llmProvider = LlmClientFactory.LlmProvider.OLLAMA;
                 case "--lmstudio" -> llmProvider = LlmClientFactory.LlmProvider.LMSTUDIO;
+                case "--llm-cache" -> {
+                    if (i + 1 >= args.length || args[i + 1].startsWith("-")) {
+                        System.err.println("Missing file name for --llm-cache option");
+                        System.exit(1);
+                    }
+                    llmCacheFilename = args[++i];
+                }
+                case "--llm-concurrency" -> {
+                    if (i + 1 >= args.length || args[i + 1].startsWith("-")) {
+                        System.err.println("Missing number of requests for --llm-concurrency option");
+                        System.exit(1);
+                    }
+                    try {
+                        llmConcurrency = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        llmConcurrency = 0;
+                    }
+                    if (llmConcurrency < 1) {
+                        System.err.println("Invalid number of requests for --llm-concurrency option: " + args[i]);
+                        System.exit(1);
+                    }
+                }
+
+                case "--llm-pipeline" -> {
+                    if (i + 1 >= args.length || args[i + 1].startsWith("-")) {
+                        System.err.println("Missing number of requests for --llm-pipeline option");
+                        System.exit(1);
+                    }
+                    try {
+                        llmPipeline = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        llmPipeline = 0;
+                    }
+                    if (llmPipeline < 1) {
+                        System.err.println("Invalid number of requests for --llm-pipeline option: " + args[i]);
+                        System.exit(1);
+                    }
+                }
+
+                case "--llm-deadline" -> {
+                    if (i + 1 >= args.length || args[i + 1].startsWith("-")) {
+                        System.err.println("Missing number of milliseconds for --llm-deadline option");
+                        System.exit(1);
+                    }
+                    try {
+                        llmDeadline = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        llmDeadline = 0;
+                    }
+                    if (llmDeadline < 1) {
+                        System.err.println("Invalid number of milliseconds for --llm-deadline option: " + args[i]);
+                        System.exit(1);
+                    }
+                }
 
                 default -> {
                     System.err.println("Unknown option: " + args[i]);
-                    System.err.println("Available options: -s, -u, -U, -m, -r, -R, -i <charset>, -o <charset>");
-                    System.err.println("AI-assist options: --openai, --claude, --ollama, --lmstudio");
+                    System.err.println("Available options: -s, -u, -U, -m, -r, -R, -i <charset>, -o <charset>, -p <threads>");
+                    System.err.println("AI-assist options: --openai, --claude, --ollama, --lmstudio, --llm-cache <file>, --llm-concurrency <requests>, --llm-pipeline <requests>, --llm-deadline <milliseconds>");
                     System.exit(1);
                 }
             }
         }
 
         Kanada converter = create();
+        CachingLlmClient llmCache = null;
         if (llmProvider != null) {
             LlmClient llmClient = LlmClientFactory.createClient(llmProvider);
             if (!llmClient.testConnection()) {
                 System.err.println("Failed to connect to LLM server for " + llmProvider);
                 System.exit(1);
             }
+            // Retry the failed requests, and fall back to the dictionary while the provider keeps failing.
+            llmClient = new ResilientLlmClient(llmClient);
+            if (llmCacheFilename != null) {
+                try {
+                    llmCache = new CachingLlmClient(llmClient, CACHE_CAPACITY, Path.of(llmCacheFilename));
+                    llmClient = llmCache;
+                } catch (IOException e) {
+                    System.err.println("Failed to open LLM cache file: " + e.getMessage());
+                    System.exit(1);
+                }
+            }
             converter.withLlmClient(llmClient);
+            if (llmConcurrency > 0) {
+                converter.withDocumentLlm(llmConcurrency);
+            }
+            if (llmPipeline > 0) {
+                converter.withLlmPipeline(llmPipeline);
+            }
+            if (llmDeadline > 0) {
+                converter.withLlmDeadline(Duration.ofMillis(llmDeadline));
+            }
             LOGGER.info("Using LLM provider: " + llmProvider + " (model: " + llmClient.getModel() + ")");
         }
         switch (mode) {
@@ -312,26 +456,45 @@ public class Kanada {
         if (macrons) converter.withMacrons();
         if (furigana) converter.withFurigana();
         if (allYomi) converter.withAllYomi();
+        if (parallelism > 1) converter.withParallelism(parallelism);
 
-        if (inputFilename != null) {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(inputFilename), inputCharset));
-                 BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(System.out, outputCharset))) {
-                converter.process(reader, writer);
+        // Exit only after the LLM cache file is closed, because System.exit skips the finally blocks.
+        int status = 0;
+        try {
+            if (parallelism == 1 && llmConcurrency == 0 && llmPipeline == 0 && llmDeadline == 0 && inputCharset.equals(StandardCharsets.UTF_8) && outputCharset.equals(StandardCharsets.UTF_8)) {
+                // Convert the bytes directly without the charset layers of readers and writers.
+                try (ReadableByteChannel in = inputFilename != null
+                        ? FileChannel.open(Path.of(inputFilename))
+                        : Channels.newChannel(System.in)) {
+                    new Utf8Converter(converter.build()).process(in, Channels.newChannel(System.out));
+                    System.out.flush();
+                }
+            } else {
+                // The writer is flushed but not closed, so that System.out stays open.
+                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(System.out, outputCharset));
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputFilename != null
+                        ? new FileInputStream(inputFilename)
+                        : System.in, inputCharset))) {
+                    converter.process(reader, writer);
+                }
                 writer.flush();
-            } catch (Exception e) {
-                System.err.println("Error: " + e.getMessage());
-                System.exit(1);
             }
-        } else {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, inputCharset));
-                 BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(System.out, outputCharset))) {
-                converter.process(reader, writer);
-                writer.flush();
-            } catch (Exception e) {
-                System.err.println("Error: " + e.getMessage());
-                System.exit(1);
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            status = 1;
+        } finally {
+            if (llmCache != null) {
+                try {
+                    llmCache.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to close LLM cache file: " + e.getMessage());
+                    status = 1;
+                }
             }
         }
+        if (status != 0) {
+            System.exit(status);
+        }
     }
 
     // Builder pattern methods
@@ -348,6 +511,7 @@ public class Kanada {
                 JMapper.TO_ASCII);
         // default to Modified Hepburn
         conversionSystem = KanaMapping.ConversionSystem.MODIFIED_HEPBURN;
+        converter = null;
         return this;
     }
 
@@ -362,6 +526,7 @@ public class Kanada {
                 JMapper.AS_IS,
                 JMapper.AS_IS,
                 JMapper.TO_HIRAGANA);
+        converter = null;
         return this;
     }
 
@@ -376,6 +541,7 @@ public class Kanada {
                 JMapper.AS_IS,
                 JMapper.AS_IS,
                 JMapper.TO_KATAKANA);
+        converter = null;
         return this;
     }
 
@@ -390,6 +556,7 @@ public class Kanada {
                 JMapper.AS_IS,
                 JMapper.AS_IS,
                 JMapper.TO_HALF_KATAKANA);
+        converter = null;
         return this;
     }
 
@@ -404,6 +571,7 @@ public class Kanada {
                 JMapper.TO_KATAKANA,
                 JMapper.TO_WIDE_SYMBOL,
                 JMapper.TO_HIRAGANA);
+        converter = null;
         return this;
     }
 
@@ -418,6 +586,7 @@ public class Kanada {
                 JMapper.TO_KATAKANA,
                 JMapper.TO_WIDE_SYMBOL,
                 JMapper.TO_HIRAGANA);
+        converter = null;
         return this;
     }
 
@@ -433,11 +602,13 @@ public class Kanada {
                 JMapper.TO_KANA_BRAILLE,
                 JMapper.AS_IS);
         conversionSystem = KanaMapping.ConversionSystem.KANA_BRAILLE;
+        converter = null;
         return this;
     }
 
     public Kanada withMacrons() {
         modeMacron = true;
+        converter = null;
         return this;
     }
 
@@ -448,40 +619,129 @@ public class Kanada {
     public Kanada withSpaces(char separator) {
         modeAddSpace = true;
         settingSeparatorChar = separator;
+        converter = null;
         return this;
     }
 
     public Kanada withFurigana() {
         modeShowAllYomi = false;
         modeFurigana = true;
+        converter = null;
         return this;
     }
 
     public Kanada withAllYomi() {
         modeShowAllYomi = true;
         modeFurigana = false;
+        converter = null;
         return this;
     }
 
     public Kanada withLlmClient(LlmClient llmClient) {
         this.llmClient = llmClient;
+        converter = null;
+        return this;
+    }
+
+    /**
+     * Convert large input in parallel.<br>
+     * The input is split into chunks at sentence terminators and the chunks are converted by the given
+     * number of threads. The output is the same as when the input is converted on a single thread.
+     *
+     * @param parallelism The number of threads, or 1 to convert on the calling thread
+     */
+    public Kanada withParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        settingParallelism = parallelism;
+        converter = null;
+        return this;
+    }
+
+    /**
+     * Resolve the ambiguous words of the whole text with the LLM before converting it.<br>
+     * The text is read into memory and parsed twice. Occurrences in the same context are sent only once,
+     * the unique ones are sent concurrently, and a word found in many contexts is read the same way
+     * throughout the text.
+     *
+     * @param concurrency The maximum number of concurrent LLM requests
+     */
+    public Kanada withDocumentLlm(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+        settingLlmConcurrency = concurrency;
+        converter = null;
+        return this;
+    }
+
+    /**
+     * Keep parsing while the LLM selects the readings of ambiguous words.<br>
+     * The output of each word is held until its reading arrives, and the output is written in order.
+     * Ignored when the alignment is recorded, and when the whole text is resolved first with
+     * {@link #withDocumentLlm(int)}.
+     *
+     * @param requests The maximum number of LLM requests in flight
+     */
+    public Kanada withLlmPipeline(int requests) {
+        if (requests < 1) {
+            throw new IllegalArgumentException("Number of requests must be positive");
+        }
+        settingLlmPipeline = requests;
+        converter = null;
+        return this;
+    }
+
+    /**
+     * Limit the time each conversion spends on the LLM.<br>
+     * An ambiguous word is sent to the LLM only if the time remaining is longer than most of the recent
+     * LLM latencies, and the answers that have not arrived by the deadline are replaced with the dictionary
+     * readings. The deadline applies to each call of {@code process}, and not to a wrapped reader.
+     *
+     * @param timeBudget The time allowed for each conversion
+     */
+    public Kanada withLlmDeadline(Duration timeBudget) {
+        if (timeBudget == null || timeBudget.isNegative() || timeBudget.isZero()) {
+            throw new IllegalArgumentException("Time budget must be positive");
+        }
+        settingLlmDeadline = timeBudget;
+        converter = null;
+        return this;
+    }
+
+    /**
+     * Use the dictionary readings for the ambiguous words found while the given number of LLM requests
+     * are in flight, across all the conversions of the converter, or of this builder until an option is changed.
+     *
+     * @param maxInFlight The maximum number of LLM requests in flight
+     */
+    public Kanada withLlmLoadShedding(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Number of requests must be positive");
+        }
+        settingLlmMaxInFlight = maxInFlight;
+        converter = null;
         return this;
     }
 
     public Kanada upperCaseFirst() {
         modeUcFirst = true;
         modeUcAll = false;
+        converter = null;
         return this;
     }
 
     public Kanada upperCaseAll() {
         modeUcAll = true;
         modeUcFirst = false;
+        converter = null;
         return this;
     }
 
     public Kanada romanizationSystem(KanaMapping.ConversionSystem system) {
         conversionSystem = system;
+        converter = null;
         return this;
     }
 
@@ -505,33 +765,54 @@ public class Kanada {
         optionBraille = paramBraille;
     }
 
-    public void process(Reader reader, Writer writer) {
-        if (reader == null || writer == null) {
-            throw new IllegalArgumentException("Reader and Writer must not be null");
-        }
-        try {
-            JWriter jWriter = new JWriter(this);
-            KanjiParser parser = new KanjiParser(jWriter, llmClient);
-            parser.parse(reader, writer);
-        } catch (Exception e) {
-            LOGGER.warning(e.getMessage());
+    /**
+     * Compile the current options into an immutable converter.<br>
+     * Later changes to this builder do not affect the returned converter.
+     *
+     * @return A converter that can be shared across threads
+     */
+    public Converter build() {
+        return new Converter(this);
+    }
+
+    /**
+     * @return The converter of the current options, which is kept for the next conversions until an option
+     * is changed, together with its caches and LLM budget
+     */
+    Converter converter() {
+        Converter built = converter;
+        if (built == null) {
+            built = build();
+            converter = built;
         }
+        return built;
+    }
+
+    public void process(Reader reader, Writer writer) {
+        converter().process(reader, writer);
     }
 
     public String process(Reader reader) {
-        if (reader == null) {
-            throw new IllegalArgumentException("Reader must not be null");
-        }
-        StringWriter writer = new StringWriter();
-        process(reader, writer);
-        return writer.toString();
+        return converter().process(reader);
     }
 
     public String process(String str) {
-        if (str == null) {
-            return null;
-        }
-        StringReader reader = new StringReader(str);
-        return process(reader);
+        return converter().process(str);
+    }
+
+    /**
+     * Wrap a reader so that its text is converted lazily as it is read.
+     *
+     * @see Converter#wrap(Reader)
+     */
+    public Reader wrap(Reader reader) {
+        return converter().wrap(reader);
+    }
+
+    // Converters for the static methods, created on first use
+    private static final class Defaults {
+        private static final Converter ROMAJI = create().toRomaji().withSpaces().build();
+        private static final Converter HIRAGANA = create().toHiragana().build();
+        private static final Converter KATAKANA = create().toKatakana().build();
     }
 }
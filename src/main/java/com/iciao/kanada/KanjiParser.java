@@ -27,10 +27,16 @@ import com.iciao.kanada.llm.LlmClient;
 import com.iciao.kanada.maps.KanaMapping;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -42,9 +48,51 @@ import java.util.stream.Collectors;
 class KanjiParser {
     private static final Logger LOGGER = Logger.getLogger(KanjiParser.class.getName());
     private final static Kanwadict kanwa = Kanwadict.getKanwadict();
-    private final Kanada kanada;
-    private final JWriter jWriter;
+    private final JWriter[] jWriters;
     private final LlmClient llmClient;
+    // Readings resolved for the whole text in advance, if any
+    protected ReadingResolver resolver;
+    // Maximum number of LLM requests in flight while parsing, or 0 to wait for each answer
+    protected int pipeline;
+    // Outputs holding the text after the words waiting for the LLM, while pipelining
+    private OrderedWriter[] orderedOutputs;
+    // Decides whether the LLM is consulted within the time budget and the load, if any
+    private final LlmBudget llmBudget;
+    // Deadline of the current conversion, for the LLM budget
+    protected long deadline = LlmBudget.NO_DEADLINE;
+
+    // Options combined over all the writers
+    private final boolean needsDictionary;
+    private final boolean needsReading;
+    private final boolean needsCandidates;
+    // Whether separators are written between words
+    private final boolean writesSeparators;
+
+    // The dictionary word found by the last call of processCharacterAt, for the token iterator
+    protected String lastReading;
+    protected int lastCandidateCount;
+
+    // Candidates of the word being looked up and their readings, reused for every word
+    private final List<Kanwadict.YomiKanjiData> candidateBuffer = new ArrayList<>();
+    private final List<String> readingBuffer = new ArrayList<>();
+
+    // State of the text being parsed
+    private BufferedReader input;
+    private Writer[] outputs;
+    private StringBuilder buffer;
+    private int position;
+    private int length;
+    private boolean started;
+    // Whether the context window slides over a text read from the reader
+    private boolean slides;
+    private BufferedReader noInput;
+    // Offset of the current position from the start of the parsed text
+    protected int offset;
+
+    // Number of characters kept before the current position while the context window slides.
+    static final int MAX_LOOKBEHIND = 30;
+    // For LLM disambiguation, the context is searched for 25 characters before and after the position.
+    private static final int CONTEXT_SIZE = 60;
 
     @SuppressWarnings("unused")
     protected KanjiParser(JWriter writer) {
@@ -52,9 +100,43 @@ class KanjiParser {
     }
 
     protected KanjiParser(JWriter writer, LlmClient llmClient) {
-        kanada = writer.getKanada();
-        jWriter = writer;
+        this(new JWriter[]{writer}, llmClient);
+    }
+
+    /**
+     * Parse once and write to several writers, each with its own converter.<br>
+     * The words and their readings are decided once and shared by all the writers.
+     */
+    protected KanjiParser(JWriter[] writers, LlmClient llmClient) {
+        this(writers, llmClient, false);
+    }
+
+    /**
+     * @param tokenize Whether the parser is used to split the text into tokens, in which case the
+     *                 candidates are always collected and no separators are written
+     */
+    protected KanjiParser(JWriter[] writers, LlmClient llmClient, boolean tokenize) {
+        if (writers.length == 0) {
+            throw new IllegalArgumentException("At least one writer is required");
+        }
+        jWriters = writers;
         this.llmClient = llmClient;
+
+        boolean addSpace = false, dictionary = false, reading = false, candidates = false;
+        LlmBudget budget = null;
+        for (JWriter writer : writers) {
+            Converter converter = writer.getConverter();
+            budget = budget != null ? budget : converter.llmBudget;
+            addSpace |= converter.modeAddSpace;
+            dictionary |= converter.needsDictionary;
+            reading |= converter.needsReading;
+            candidates |= converter.needsCandidates;
+        }
+        needsDictionary = dictionary;
+        needsReading = reading;
+        needsCandidates = candidates || tokenize;
+        llmBudget = budget;
+        writesSeparators = addSpace && !tokenize;
     }
 
     // TODO: 全角の約物類の扱いを見直す
@@ -65,33 +147,188 @@ class KanjiParser {
         return c == '、' || c == '。' || c == '」' || c == '）' || c == '！' || c == '？' || c == '・';
     }
 
+    /**
+     * @return Whether the text has a word boundary before the given position, where a separator is inserted
+     */
+    static boolean isBoundaryAt(CharSequence text, int i) {
+        if (i == 0) {
+            return false;
+        }
+        int thisChar = Character.codePointAt(text, i);
+        int prevChar = Character.codePointAt(text, i - 1);
+        Character.UnicodeBlock currentBlock = Character.UnicodeBlock.of(thisChar);
+        Character.UnicodeBlock prevBlock = Character.UnicodeBlock.of(prevChar);
+        if (prevBlock == currentBlock) {
+            return false;
+        }
+        if (isClosingPunctuation(thisChar) || prevChar == '「' || prevChar == '（' || prevChar == '・') {
+            return false;
+        } else if (Character.isWhitespace(thisChar) || Character.isWhitespace(prevChar)) {
+            return false;
+        } else if (thisChar == 'ー' && prevBlock == Character.UnicodeBlock.HIRAGANA) {
+            return false;
+        } else if (prevChar == 'ー') {
+            int prevPrevChar = i > 1 ? Character.codePointAt(text, i - 2) : 0;
+            Character.UnicodeBlock prevPrevBlock = Character.UnicodeBlock.of(prevPrevChar);
+            return currentBlock != prevPrevBlock && prevPrevChar != 'ー';
+        }
+        return true;
+    }
+
+    /**
+     * @return Whether a dictionary word may start with the given character
+     */
+    boolean isDictionaryCandidate(int codePoint) throws Exception {
+        return needsDictionary
+                && Character.UnicodeBlock.of(codePoint) == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS
+                && kanwa.searchKey(kanwa.getKey(codePoint));
+    }
+
     protected void parse(Reader reader, Writer writer) throws Exception {
+        parse(reader, writer, "", Integer.MAX_VALUE);
+    }
+
+    /**
+     * Parse the text and write the output of each writer to the writer at the same index.
+     */
+    protected void parse(Reader reader, Writer[] writers) throws Exception {
+        parse(reader, writers, "", Integer.MAX_VALUE);
+    }
+
+    /**
+     * Parse a part of a larger text.<br>
+     * The preceding text is not converted but serves as the lookbehind for word boundaries and LLM context.
+     * Parsing stops after the given number of characters, so the reader may run on into the following text
+     * to provide the lookahead, exactly as it would when the whole text is parsed at once.
+     */
+    protected void parse(Reader reader, Writer writer, CharSequence precedingText, int length) throws Exception {
         if (reader == null || writer == null) {
             throw new IllegalArgumentException("Reader and Writer must not be null");
         }
-        try (BufferedReader bufferedReader = new BufferedReader(reader)) {
-            StringBuilder buffer = new StringBuilder();
-            int position = 0;
-            // For LLM disambiguation, the context is searched for 25 characters before and after the position.
-            int contextSize = 60;
-            int maxPosition = 30;
+        parse(reader, new Writer[]{writer}, precedingText, length);
+    }
 
-            // Initial read to fill the buffer
-            readForward(bufferedReader, buffer, contextSize);
-
-            while (!buffer.isEmpty() && buffer.length() > position) {
-                int matched = processCharacterAt(bufferedReader, writer, buffer, position);
-                if (position >= maxPosition) {
-                    // Slide the context window by the matched length.
-                    readForward(bufferedReader, buffer, matched);
-                    buffer.delete(0, matched);
-                } else {
-                    position += matched;
+    private void parse(Reader reader, Writer[] writers, CharSequence precedingText, int length) throws Exception {
+        if (pipeline > 0 && llmClient != null && resolver == null && needsReading) {
+            // Keep parsing while the LLM selects the readings, and write the output in order.
+            orderedOutputs = new OrderedWriter[writers.length];
+            for (int i = 0; i < writers.length; i++) {
+                orderedOutputs[i] = new OrderedWriter(writers[i], deadline);
+            }
+            writers = orderedOutputs;
+        }
+        begin(reader, writers, precedingText, length);
+        try {
+            while (step()) {
+                // Parse to the end
+            }
+            if (orderedOutputs != null) {
+                for (OrderedWriter orderedOutput : orderedOutputs) {
+                    orderedOutput.drain(0);
+                    orderedOutput.flush();
                 }
             }
+        } finally {
+            orderedOutputs = null;
+            input.close();
+        }
+    }
+
+    /**
+     * Start parsing a text, which is then parsed by calling {@link #step()} until it returns false.<br>
+     * The reader is not read until the first step.
+     */
+    protected void begin(Reader reader, Writer[] writers, CharSequence precedingText, int length) {
+        if (reader == null || writers.length != jWriters.length) {
+            throw new IllegalArgumentException("A Reader and a Writer for each output are required");
+        }
+        input = reader instanceof BufferedReader bufferedReader ? bufferedReader : new BufferedReader(reader);
+        begin(writers, precedingText, length);
+        slides = true;
+    }
+
+    /**
+     * Start parsing a part of a text held in memory.<br>
+     * The whole text is kept in the buffer, and the parser can be reused for another text afterwards.
+     */
+    protected void begin(CharSequence text, int start, int end, Writer[] writers) {
+        if (writers.length != jWriters.length) {
+            throw new IllegalArgumentException("A Writer for each output is required");
+        }
+        if (noInput == null) {
+            noInput = new BufferedReader(Reader.nullReader(), 1);
+        }
+        input = noInput;
+        begin(writers, "", end - start);
+        buffer.append(text, start, end);
+        slides = false;
+    }
+
+    private void begin(Writer[] writers, CharSequence precedingText, int length) {
+        outputs = writers;
+        if (buffer == null) {
+            buffer = new StringBuilder(precedingText);
+        } else {
+            buffer.setLength(0);
+            buffer.append(precedingText);
+        }
+        position = buffer.length();
+        offset = 0;
+        this.length = length;
+        started = false;
+    }
+
+    /**
+     * Convert the next word or character.
+     *
+     * @return false after the remaining characters are flushed at the end of the text
+     */
+    protected boolean step() throws Exception {
+        if (!started) {
+            // Initial read to fill the buffer
+            readForward(input, buffer, CONTEXT_SIZE);
+            started = true;
+        }
+        if (buffer.length() <= position || offset >= length) {
             // Flush the remaining characters in the buffer.
-            jWriter.flushBuffer(writer);
+            flushBuffers(outputs, offset);
+            return false;
         }
+        int matched = processCharacterAt(input, outputs, buffer, position, length - offset);
+        offset += matched;
+        if (slides && position >= MAX_LOOKBEHIND) {
+            // Slide the context window by the matched length.
+            readForward(input, buffer, matched);
+            buffer.delete(0, matched);
+        } else {
+            position += matched;
+        }
+        return true;
+    }
+
+    /**
+     * @return Whether the next character ends a sentence, where the output can be flushed without changing it
+     */
+    protected boolean isAtSentenceEnd() {
+        return started && position > 0 && position < buffer.length()
+                && ParallelParser.isTerminator(buffer.charAt(position))
+                && !ParallelParser.isBraille(buffer.charAt(position - 1));
+    }
+
+    /**
+     * Write out the characters converted so far.
+     */
+    protected void flush() throws IOException {
+        flushBuffers(outputs, offset);
+    }
+
+    private static boolean isWordAt(CharSequence text, int i, String word) {
+        for (int j = word.length() - 1; j >= 0; j--) {
+            if (text.charAt(i + j) != word.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private void readForward(BufferedReader reader, StringBuilder buffer, int length) throws Exception {
@@ -102,61 +339,45 @@ class KanjiParser {
         }
     }
 
-    private int processCharacterAt(BufferedReader reader, Writer writer, StringBuilder inputString, int i) throws Exception {
+    /**
+     * Convert the word or the character at the given position.
+     *
+     * @return The number of characters consumed
+     */
+    int processCharacterAt(BufferedReader reader, Writer[] writers, StringBuilder inputString, int i, int remaining) throws Exception {
         int thisChar = inputString.codePointAt(i);
         Character.UnicodeBlock currentBlock = Character.UnicodeBlock.of(thisChar);
+        lastReading = null;
 
-        if (i > 0 && kanada.modeAddSpace) {
-            int prevChar = inputString.codePointAt(i - 1);
-            Character.UnicodeBlock prevBlock = Character.UnicodeBlock.of(prevChar);
-            if (prevBlock != currentBlock) {
-                // Insert a space at the word boundary when necessary.
-                boolean isBoundaryAtTransition = true;
-                if (isClosingPunctuation(thisChar) || prevChar == '「' || prevChar == '（' || prevChar == '・') {
-                    isBoundaryAtTransition = false;
-                } else if (Character.isWhitespace(thisChar) || Character.isWhitespace(prevChar)) {
-                    isBoundaryAtTransition = false;
-                } else if (thisChar == 'ー' && prevBlock == Character.UnicodeBlock.HIRAGANA) {
-                    isBoundaryAtTransition = false;
-                } else if (prevChar == 'ー') {
-                    int prevPrevChar = i > 1 ? inputString.codePointAt(i - 2) : 0;
-                    Character.UnicodeBlock prevPrevBlock = Character.UnicodeBlock.of(prevPrevChar);
-                    if (currentBlock == prevPrevBlock || prevPrevChar == 'ー') {
-                        isBoundaryAtTransition = false;
-                    }
-                }
-                if (isBoundaryAtTransition) {
-                    appendSeparator();
-                }
+        // Insert a space at the word boundary when necessary.
+        if (writesSeparators && isBoundaryAt(inputString, i)) {
+            for (JWriter jWriter : jWriters) {
+                appendSeparator(jWriter);
             }
         }
 
         // Skip the rest if dictionary lookups aren't necessary.
-        if (kanada.optionKanji == JMapper.AS_IS && !kanada.modeAddSpace && !kanada.modeFurigana && !kanada.modeShowAllYomi) {
-            jWriter.append(thisChar);
-            return 1;
+        if (!needsDictionary) {
+            appendCodePoint(thisChar);
+            return Character.charCount(thisChar);
         }
 
         // The dictionary is indexed by characters from the CJK Unified Ideographs block.
         if (currentBlock != Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS) {
-            jWriter.append(thisChar);
-            return 1;
+            appendCodePoint(thisChar);
+            return Character.charCount(thisChar);
         }
 
         Kanwadict.KanwaKey key = kanwa.getKey(thisChar);
-        List<Kanwadict.YomiKanjiData> valueList = new ArrayList<>();
-
-        if (kanwa.searchKey(key)) {
-            valueList = kanwa.getValue(key);
-        }
+        List<Kanwadict.YomiKanjiData> valueList = kanwa.searchKey(key) ? kanwa.getValue(key) : List.of();
 
         if (valueList.isEmpty()) {
-            jWriter.append(thisChar);
-            return 1;
+            appendCodePoint(thisChar);
+            return Character.charCount(thisChar);
         }
 
         // Flush non-dictionary characters before looking up the dictionary.
-        jWriter.flushBuffer(writer);
+        flushBuffers(writers, offset);
 
         int matchedLen = 0;
         String yomi;
@@ -164,12 +385,13 @@ class KanjiParser {
         int tail = ' ';
         String yomiWithTail = "";
         String yomiWithoutTail = "";
-        List<Kanwadict.YomiKanjiData> candidates = new ArrayList<>();
+        List<Kanwadict.YomiKanjiData> candidates = candidateBuffer;
+        candidates.clear();
 
         for (Kanwadict.YomiKanjiData term : valueList) {
             int searchLen = term.getLength();
-            // Skip if a longer word is already found.
-            if (searchLen < matchedLen) {
+            // Skip if a longer word is already found, or if the word runs past the end of the text to parse.
+            if (searchLen < matchedLen || searchLen > remaining) {
                 continue;
             }
             // Add more characters to the input buffer if needed
@@ -182,18 +404,16 @@ class KanjiParser {
                 continue;
             }
 
-            String searchWord = inputString.substring(i, i + searchLen);
-
             int searchTail = ' ';
-            if (term.tail() != ' ' && i + searchWord.length() < inputString.length()) {
-                char nextChar = inputString.charAt(i + searchWord.length());
+            if (term.tail() != ' ' && i + searchLen < inputString.length()) {
+                char nextChar = inputString.charAt(i + searchLen);
                 if (Character.UnicodeBlock.of(nextChar) == Character.UnicodeBlock.HIRAGANA) {
                     // The tail letters from the SKK dictionary are assumed to be based on the Hepburn system.
                     searchTail = KanaMapping.getInstance().getRomajiInitial(nextChar, KanaMapping.ConversionSystem.MODIFIED_HEPBURN);
                 }
             }
 
-            if (searchWord.equals(term.kanji())) {
+            if (isWordAt(inputString, i, term.kanji())) {
                 kanji = term.kanji();
                 matchedLen = searchLen;
                 if (term.tail() == ' ') {
@@ -206,7 +426,7 @@ class KanjiParser {
                         tail = term.tail();
                     }
                 }
-                if (kanada.modeShowAllYomi || llmClient != null) {
+                if (needsCandidates) {
                     // Collect all YomiKanjiData for this word chunk
                     if (candidates.isEmpty() || candidates.get(0).getLength() == searchLen) {
                         if (candidates.isEmpty() || candidates.get(0).getLength() < searchLen) {
@@ -224,60 +444,152 @@ class KanjiParser {
             }
         }
 
-        if (!yomiWithTail.isEmpty()) {
-            yomi = yomiWithTail;
-            jWriter.tail = tail;
-        } else {
+        if (yomiWithTail.isEmpty()) {
             yomi = yomiWithoutTail;
-            jWriter.tail = ' ';
+            tail = ' ';
+        } else {
+            yomi = yomiWithTail;
         }
 
         // Use an LLM to select the most appropriate reading from multiple candidates when necessary.
-        if (kanada.optionKanji != JMapper.AS_IS || kanada.modeFurigana || kanada.modeShowAllYomi) {
+        CompletableFuture<String> pendingReading = null;
+        if (needsReading) {
             if (tail == ' ' && llmClient != null && candidates.size() > 1) {
-                Kanwadict.YomiKanjiData selectedTerm = askGenerativeAI(candidates, inputString.toString(), i);
-                yomi = selectedTerm.yomi();
-                jWriter.tail = selectedTerm.tail();
+                if (orderedOutputs != null) {
+                    // The dictionary reading is used when the request is shed.
+                    pendingReading = requestGenerativeAI(candidates, inputString.toString(), i);
+                    yomi = candidates.get(0).yomi();
+                } else {
+                    Kanwadict.YomiKanjiData selectedTerm = askGenerativeAI(candidates, inputString.toString(), i);
+                    yomi = selectedTerm.yomi();
+                    tail = selectedTerm.tail();
+                }
             }
         }
 
         if (matchedLen > 0 && !yomi.isEmpty()) {
-            if (kanada.optionKanji == JMapper.AS_IS) {
-                jWriter.append(kanji);
-            } else {
-                jWriter.append(yomi);
+            lastReading = yomi;
+            List<String> possibleReadings = getPossibleReadings(candidates, yomi, readingBuffer);
+            lastCandidateCount = Math.max(1, possibleReadings.size());
+            int nextIndex = i + matchedLen;
+            boolean isFollowedByWord = nextIndex < inputString.length()
+                    && !isClosingPunctuation(inputString.codePointAt(nextIndex));
+
+            if (pendingReading != null) {
+                // Render the word for each reading and write the one selected when the answer arrives.
+                for (int w = 0; w < jWriters.length; w++) {
+                    Map<String, String> outputs = new HashMap<>();
+                    for (String reading : possibleReadings) {
+                        List<String> readings = getPossibleReadings(candidates, reading, new ArrayList<>());
+                        appendWord(jWriters[w], kanji, reading, tail, readings, isFollowedByWord);
+                        outputs.put(reading, jWriters[w].render());
+                    }
+                    jWriters[w].advance(tail);
+                    orderedOutputs[w].appendPending(pendingReading, outputs, outputs.get(yomi));
+                }
+                return matchedLen;
             }
-
-            // These modes should be used with the Kanji option but leaving the choice up to the user.
-            if (kanada.modeFurigana) {
-                jWriter.append("[").append(yomi).append("]");
-            } else if (kanada.modeShowAllYomi && !candidates.isEmpty()) {
-                String topYomi = yomi;
-                List<String> possibleReadings = new ArrayList<>(
-                        candidates.stream()
-                                .map(Kanwadict.YomiKanjiData::yomi)
-                                .filter(item -> !item.equals(topYomi))
-                                .distinct()
-                                .toList());
-                possibleReadings.add(0, topYomi);
-                jWriter.append("{").append(String.join("|", possibleReadings)).append("}");
+            for (JWriter jWriter : jWriters) {
+                appendWord(jWriter, kanji, yomi, tail, possibleReadings, isFollowedByWord);
             }
+            flushBuffers(writers, offset + matchedLen);
+            return matchedLen;
+        }
 
-            if (kanada.modeAddSpace && jWriter.tail == ' ') {
-                int nextIndex = i + matchedLen;
-                if (nextIndex < inputString.length()) {
-                    int nextChar = inputString.codePointAt(nextIndex);
-                    if (!isClosingPunctuation(nextChar)) {
-                        appendSeparator();
-                    }
+        appendCodePoint(thisChar);
+        return Character.charCount(thisChar);
+    }
+
+    /**
+     * @param possibleReadings The list to be cleared and filled
+     * @return The distinct readings of the candidates, starting with the given reading, or an empty list
+     * if there are no candidates
+     */
+    private static List<String> getPossibleReadings(List<Kanwadict.YomiKanjiData> candidates, String topYomi,
+                                                    List<String> possibleReadings) {
+        possibleReadings.clear();
+        if (!candidates.isEmpty()) {
+            possibleReadings.add(topYomi);
+            for (Kanwadict.YomiKanjiData candidate : candidates) {
+                if (!possibleReadings.contains(candidate.yomi())) {
+                    possibleReadings.add(candidate.yomi());
                 }
             }
-            jWriter.flushBuffer(writer);
-            return matchedLen;
         }
+        return possibleReadings;
+    }
 
-        jWriter.append(thisChar);
-        return 1;
+    private void appendWord(JWriter jWriter, String kanji, String yomi, int tail, List<String> possibleReadings,
+                            boolean isFollowedByWord) throws IOException {
+        Converter converter = jWriter.getConverter();
+        jWriter.tail = tail;
+        if (converter.optionKanji == JMapper.AS_IS) {
+            jWriter.append(kanji);
+        } else {
+            jWriter.appendMapped(converter.dispatchTable.mapReading(yomi));
+        }
+
+        // These modes should be used with the Kanji option but leaving the choice up to the user.
+        if (converter.modeFurigana) {
+            jWriter.append("[").append(yomi).append("]");
+        } else if (converter.modeShowAllYomi && !possibleReadings.isEmpty()) {
+            jWriter.append("{").append(String.join("|", possibleReadings)).append("}");
+        }
+
+        if (writesSeparators && tail == ' ' && isFollowedByWord) {
+            appendSeparator(jWriter);
+        }
+    }
+
+    /**
+     * Send the candidates to the LLM without waiting for the answer, once the number of requests in flight
+     * is below the limit.
+     *
+     * @return The reading to be selected, or null if the request is shed by the LLM budget
+     */
+    private CompletableFuture<String> requestGenerativeAI(List<Kanwadict.YomiKanjiData> candidates, String sentence,
+                                                          int position) throws IOException {
+        for (OrderedWriter orderedOutput : orderedOutputs) {
+            orderedOutput.drain(pipeline - 1);
+        }
+        String targetKanji = candidates.get(0).kanji();
+        List<String> possibleReadings = candidates.stream()
+                .map(Kanwadict.YomiKanjiData::yomi)
+                .distinct()
+                .collect(Collectors.toList());
+        String context = extractContext(sentence, targetKanji, position);
+        if (llmBudget != null) {
+            if (!llmBudget.tryAcquire(deadline)) {
+                return null;
+            }
+            return llmBudget.send(() -> selectBestReadingAsync(targetKanji, possibleReadings, context));
+        }
+        return selectBestReadingAsync(targetKanji, possibleReadings, context);
+    }
+
+    private CompletableFuture<String> selectBestReadingAsync(String kanji, List<String> possibleReadings, String context) {
+        try {
+            return llmClient.selectBestReadingAsync(kanji, possibleReadings, context);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Ask the LLM if the budget allows, waiting for the answer until the deadline.
+     *
+     * @return The selected reading, or null if the request is shed or not answered in time
+     */
+    private String askWithinBudget(String kanji, List<String> possibleReadings, String context) throws Exception {
+        if (!llmBudget.tryAcquire(deadline)) {
+            return null;
+        }
+        CompletableFuture<String> reading = llmBudget.send(() -> selectBestReadingAsync(kanji, possibleReadings, context));
+        try {
+            return reading.get(Math.max(0, LlmBudget.remaining(deadline)), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        }
     }
 
     private Kanwadict.YomiKanjiData askGenerativeAI(List<Kanwadict.YomiKanjiData> candidates, String sentence, int position) {
@@ -295,7 +607,14 @@ class KanjiParser {
 
                 String context = extractContext(sentence, targetKanji, position);
 
-                String bestReading = llmClient.selectBestReading(targetKanji, possibleReadings, context);
+                String bestReading;
+                if (resolver != null) {
+                    bestReading = resolver.getReading(targetKanji, possibleReadings, context);
+                } else if (llmBudget != null) {
+                    bestReading = askWithinBudget(targetKanji, possibleReadings, context);
+                } else {
+                    bestReading = llmClient.selectBestReading(targetKanji, possibleReadings, context);
+                }
                 for (Kanwadict.YomiKanjiData candidate : candidates) {
                     if (candidate.yomi().equals(bestReading)) {
                         return candidate;
@@ -347,11 +666,23 @@ class KanjiParser {
         return sb.toString().replace("\r", "").replace("\n", "");
     }
 
-    private void appendSeparator() {
-        if (!jWriter.buffer.isEmpty()
-                && jWriter.buffer.charAt(jWriter.buffer.length() - 1) != '\n'
-                && jWriter.buffer.charAt(jWriter.buffer.length() - 1) != '\r') {
-            jWriter.append(kanada.settingSeparatorChar);
+    private void appendCodePoint(int codePoint) {
+        for (JWriter jWriter : jWriters) {
+            jWriter.append(codePoint);
+        }
+    }
+
+    private void flushBuffers(Writer[] writers, int sourceOffset) throws IOException {
+        for (int i = 0; i < jWriters.length; i++) {
+            jWriters[i].flushBuffer(writers[i], sourceOffset);
+        }
+    }
+
+    private void appendSeparator(JWriter jWriter) {
+        Converter converter = jWriter.getConverter();
+        int lastChar = jWriter.lastChar();
+        if (converter.modeAddSpace && lastChar != -1 && lastChar != '\n' && lastChar != '\r') {
+            jWriter.append(converter.settingSeparatorChar);
         }
     }
 }
@@ -26,6 +26,7 @@ package com.iciao.kanada;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -109,8 +110,11 @@ public class Kanwadict {
         }
     }
 
-    private final HashMap<KanwaKey, ArrayList<YomiKanjiData>> kanwaMap = new HashMap<>();
+    // Entries are loaded lazily and may be looked up from several parser threads at once.
+    private final Map<KanwaKey, ArrayList<YomiKanjiData>> kanwaMap = new ConcurrentHashMap<>();
     private final HashMap<KanwaKey, KanwaAddress> kanwaIndex = new HashMap<>();
+    // Keys of the CJK Unified Ideographs, created on first use so that a lookup does not allocate
+    private final KanwaKey[] cjkKeys = new KanwaKey[(CJK_UNIFIED_IDEOGRAPHS_LAST - CJK_UNIFIED_IDEOGRAPHS_FIRST + 1) << 8];
 
     public static Kanwadict getKanwadict() {
         return KANWADICT;
@@ -180,7 +184,7 @@ public class Kanwadict {
         }
     }
 
-    private void buildDict(final HashMap<KanwaKey, ArrayList<YomiKanjiData>> map) throws IOException {
+    private void buildDict(final Map<KanwaKey, ArrayList<YomiKanjiData>> map) throws IOException {
         File outFile = new File(DICTIONARY_PATH, DICTIONARY_DAT);
 
         if (outFile.exists() && outFile.delete() && outFile.createNewFile()) {
@@ -216,7 +220,17 @@ public class Kanwadict {
     }
 
     public KanwaKey getKey(int codepoint) {
-        return new KanwaKey(codepoint);
+        int index = codepoint - (CJK_UNIFIED_IDEOGRAPHS_FIRST << 8);
+        if (index < 0 || index >= cjkKeys.length) {
+            return new KanwaKey(codepoint);
+        }
+        // The keys are immutable, so a key created twice by racing threads is harmless.
+        KanwaKey key = cjkKeys[index];
+        if (key == null) {
+            key = new KanwaKey(codepoint);
+            cjkKeys[index] = key;
+        }
+        return key;
     }
 
     public ArrayList<YomiKanjiData> getValue(KanwaKey key) {
@@ -0,0 +1,138 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Decide whether an ambiguous word is sent to the LLM, within the time budget of a conversion and the load
+ * of the converter.<br>
+ * A word is sent only if the time remaining until the deadline of the conversion is longer than the
+ * {@value #PERCENTILE} percentile of the recent latencies, and fewer than the maximum number of requests are
+ * in flight for all the conversions of the converter. Otherwise the dictionary reading is used.<br>
+ * The answers not received by the deadline are not waited for. This relies on the asynchronous requests of
+ * the LLM client, which the default implementation does not make.
+ *
+ * @author Masahiko Sato
+ */
+class LlmBudget {
+    static final long NO_DEADLINE = Long.MIN_VALUE;
+    static final double PERCENTILE = 0.9;
+
+    // Number of recent latencies kept, and the number needed before they are used
+    private static final int LATENCY_SAMPLES = 100;
+    private static final int MIN_LATENCY_SAMPLES = 10;
+
+    private final long timeBudget;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private int nextLatency;
+
+    /**
+     * @param timeBudget  The time budget of each conversion, or null for no deadline
+     * @param maxInFlight The maximum number of requests in flight, or 0 for no limit
+     */
+    LlmBudget(Duration timeBudget, int maxInFlight) {
+        this.timeBudget = timeBudget != null ? timeBudget.toNanos() : 0;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @return The deadline of a conversion starting now
+     */
+    long newDeadline() {
+        return timeBudget > 0 ? System.nanoTime() + timeBudget : NO_DEADLINE;
+    }
+
+    /**
+     * @return The nanoseconds remaining until the deadline, which may be negative
+     */
+    static long remaining(long deadline) {
+        return deadline == NO_DEADLINE ? Long.MAX_VALUE : deadline - System.nanoTime();
+    }
+
+    /**
+     * Count a request in flight if it can be sent.
+     *
+     * @return Whether the request fits in the remaining time and the load
+     */
+    boolean tryAcquire(long deadline) {
+        if (remaining(deadline) < getExpectedLatency()) {
+            return false;
+        }
+        while (true) {
+            int count = inFlight.get();
+            if (maxInFlight > 0 && count >= maxInFlight) {
+                return false;
+            }
+            if (inFlight.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Send a request counted by {@link #tryAcquire(long)}, and record its latency when it completes.<br>
+     * The latencies of the failed requests are recorded as well, so that a provider timing out is not taken
+     * for a fast one.
+     */
+    CompletableFuture<String> send(Supplier<CompletableFuture<String>> request) {
+        long start = System.nanoTime();
+        CompletableFuture<String> reading;
+        try {
+            reading = request.get();
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+        return reading.whenComplete((result, e) -> {
+            inFlight.decrementAndGet();
+            record(System.nanoTime() - start);
+        });
+    }
+
+    private synchronized void record(long latency) {
+        latencies[nextLatency] = latency;
+        nextLatency = (nextLatency + 1) % LATENCY_SAMPLES;
+        latencyCount = Math.min(latencyCount + 1, LATENCY_SAMPLES);
+    }
+
+    /**
+     * @return The latency at the percentile of the recent requests, or 0 if there are too few of them
+     */
+    private synchronized long getExpectedLatency() {
+        if (latencyCount < MIN_LATENCY_SAMPLES) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(PERCENTILE * latencyCount) - 1];
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada;
+
+import com.iciao.kanada.llm.LlmClient;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Convert a text to several targets from a single parse.<br>
+ * The dictionary lookups, word boundaries and LLM disambiguation are done once and shared by all the
+ * converters, so the readings are consistent across the outputs. The LLM client of the first converter
+ * that has one is used, and the parallelism settings are ignored.
+ *
+ * <pre>{@code
+ * MultiConverter converter = new MultiConverter(
+ *     Kanada.create().toHiragana().build(),
+ *     Kanada.create().toKatakana().build(),
+ *     Kanada.create().toRomaji().build());
+ * String[] keys = converter.process("東京"); // {"とうきょう", "トウキョウ", "tokyo"}
+ * }</pre>
+ *
+ * @author Masahiko Sato
+ */
+public final class MultiConverter {
+    private static final Logger LOGGER = Logger.getLogger(MultiConverter.class.getName());
+
+    private final Converter[] converters;
+    private final LlmClient llmClient;
+
+    public MultiConverter(Converter... converters) {
+        if (converters == null || converters.length == 0 || Arrays.asList(converters).contains(null)) {
+            throw new IllegalArgumentException("Converters must not be null or empty");
+        }
+        this.converters = converters.clone();
+        this.llmClient = Arrays.stream(converters)
+                .map(converter -> converter.llmClient)
+                .filter(client -> client != null)
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * @return The number of outputs
+     */
+    public int size() {
+        return converters.length;
+    }
+
+    /**
+     * Convert the text read from the reader and write the output of each converter to the writer at the same index.
+     */
+    public void process(Reader reader, Writer... writers) {
+        if (reader == null || writers == null || Arrays.asList(writers).contains(null)) {
+            throw new IllegalArgumentException("Reader and Writers must not be null");
+        }
+        if (writers.length != converters.length) {
+            throw new IllegalArgumentException("A Writer is required for each converter");
+        }
+        JWriter[] jWriters = new JWriter[converters.length];
+        for (int i = 0; i < converters.length; i++) {
+            jWriters[i] = new JWriter(converters[i]);
+        }
+        try {
+            new KanjiParser(jWriters, llmClient).parse(reader, writers);
+        } catch (Exception e) {
+            LOGGER.warning(e.getMessage());
+        }
+    }
+
+    public String[] process(String str) {
+        if (str == null) {
+            return null;
+        }
+        StringWriter[] writers = new StringWriter[converters.length];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new StringWriter();
+        }
+        process(new StringReader(str), writers);
+        return Arrays.stream(writers).map(StringWriter::toString).toArray(String[]::new);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+/**
+ * Writer that keeps the output in order while the readings of some words are still being selected by an LLM.<br>
+ * A pending word holds the output rendered for each of its readings. The text written after the first pending
+ * word is held until the words before it are resolved, and is written out as soon as they are.<br>
+ * The words not resolved by the deadline of the conversion are written with their default output.
+ *
+ * @author Masahiko Sato
+ */
+class OrderedWriter extends Writer {
+    private static final Logger LOGGER = Logger.getLogger(OrderedWriter.class.getName());
+
+    private final Writer writer;
+    private final Deque<Pending> pendings = new ArrayDeque<>();
+    private final long deadline;
+
+    // A word waiting for its reading, followed by the text written after it
+    private record Pending(CompletableFuture<String> reading, Map<String, String> outputs, String defaultOutput,
+                           StringBuilder following) {
+        private String output(long deadline) {
+            try {
+                long remaining = Math.max(0, LlmBudget.remaining(deadline));
+                String output = outputs.get(reading.get(remaining, TimeUnit.NANOSECONDS));
+                return output != null ? output : defaultOutput;
+            } catch (TimeoutException e) {
+                return defaultOutput;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return defaultOutput;
+            } catch (ExecutionException | CancellationException e) {
+                LOGGER.warning("Failed to select best reading: " + e.getMessage());
+                return defaultOutput;
+            }
+        }
+    }
+
+    /**
+     * @param deadline The deadline of the conversion, or {@link LlmBudget#NO_DEADLINE}
+     */
+    OrderedWriter(Writer writer, long deadline) {
+        this.writer = writer;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Append a word whose output depends on the reading to be selected.
+     *
+     * @param outputs       The output for each possible reading
+     * @param defaultOutput The output used when the reading cannot be selected
+     */
+    void appendPending(CompletableFuture<String> reading, Map<String, String> outputs, String defaultOutput) {
+        pendings.add(new Pending(reading, outputs, defaultOutput, new StringBuilder()));
+    }
+
+    /**
+     * Write out the resolved words at the head, waiting for the others until no more than the given number
+     * of words are pending.
+     */
+    void drain(int maxPending) throws IOException {
+        while (!pendings.isEmpty() && (pendings.size() > maxPending || pendings.peek().reading.isDone())) {
+            Pending pending = pendings.poll();
+            writer.append(pending.output(deadline)).append(pending.following);
+        }
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+        if (pendings.isEmpty()) {
+            writer.append(csq);
+        } else {
+            pendings.peekLast().following.append(csq);
+        }
+        return this;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        if (pendings.isEmpty()) {
+            writer.write(cbuf, off, len);
+        } else {
+            pendings.peekLast().following.append(cbuf, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain(Integer.MAX_VALUE);
+        if (pendings.isEmpty()) {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        drain(0);
+        writer.close();
+    }
+}
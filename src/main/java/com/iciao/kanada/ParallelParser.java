@@ -0,0 +1,178 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Split a large text into chunks and parse them in parallel.<br>
+ * The text is split right before a sentence terminator (。！？ or a line break), where the parser
+ * has no pending state except the lookbehind. Each chunk is parsed with the preceding characters
+ * as the lookbehind and the following characters as the lookahead, so the word boundaries and the
+ * LLM context are the same as when the whole text is parsed at once.<br>
+ * A chunk without a sentence terminator is split once it grows past {@value #MAX_CHUNK_FACTOR} times the chunk
+ * size, right before a comma or a non-ASCII character following whitespace, which do not change the output
+ * either. Braille text is not split there, because the braille decoder carries its state through the run.<br>
+ * The converted chunks are written in the input order. The number of chunks held in memory is bounded.
+ *
+ * @author Masahiko Sato
+ */
+class ParallelParser {
+    static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+    // Length in chunk sizes after which a chunk is split without a sentence terminator
+    static final int MAX_CHUNK_FACTOR = 4;
+
+    // Enough to cover the 25 characters of LLM context after a word and the longest dictionary words.
+    private static final int LOOKAHEAD = 60;
+
+    private final Converter converter;
+    private final int parallelism;
+    private final int chunkSize;
+    // Readings resolved for the whole text in advance, if any
+    protected ReadingResolver resolver;
+    // Deadline of the conversion, for the LLM budget
+    protected long deadline = LlmBudget.NO_DEADLINE;
+
+    protected ParallelParser(Converter converter, int parallelism) {
+        this(converter, parallelism, DEFAULT_CHUNK_SIZE);
+    }
+
+    protected ParallelParser(Converter converter, int parallelism, int chunkSize) {
+        if (parallelism < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Parallelism and chunk size must be positive");
+        }
+        this.converter = converter;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+    }
+
+    static boolean isTerminator(char c) {
+        return c == '。' || c == '！' || c == '？' || c == '\n';
+    }
+
+    static boolean isBraille(char c) {
+        return c >= 0x2800 && c <= 0x28ff;
+    }
+
+    /**
+     * @return Whether a chunk without a sentence terminator can be split before the given position
+     */
+    static boolean isClauseBoundary(CharSequence text, int i) {
+        char c = text.charAt(i);
+        char prevChar = text.charAt(i - 1);
+        if (isBraille(c) || isBraille(prevChar)) {
+            return false;
+        }
+        // A separator or a capital letter is never added there, and no word or mapped run spans it.
+        return c == '、' || c == '，' || Character.isWhitespace(prevChar) && !Character.isWhitespace(c) && c > 0x7f;
+    }
+
+    protected void parse(Reader reader, Writer writer) throws Exception {
+        if (reader == null || writer == null) {
+            throw new IllegalArgumentException("Reader and Writer must not be null");
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        // Converted chunks waiting to be written in order
+        Deque<Future<String>> pending = new ArrayDeque<>();
+        try {
+            StringBuilder text = new StringBuilder();
+            char[] readBuffer = new char[8192];
+            int start = 0;
+            boolean endOfInput = false;
+
+            while (!endOfInput || start < text.length()) {
+                int end = endOfInput ? findChunkEnd(text, start, text.length()) : findChunkEnd(text, start, text.length() - LOOKAHEAD);
+                if (end < 0) {
+                    int read = reader.read(readBuffer);
+                    if (read < 0) {
+                        endOfInput = true;
+                    } else {
+                        text.append(readBuffer, 0, read);
+                    }
+                    continue;
+                }
+
+                String precedingText = text.substring(Math.max(0, start - KanjiParser.MAX_LOOKBEHIND), start);
+                String chunk = text.substring(start, Math.min(text.length(), end + LOOKAHEAD));
+                int length = end - start;
+                pending.add(pool.submit(() -> parseChunk(precedingText, chunk, length)));
+                while (pending.size() > parallelism * 2) {
+                    writer.write(pending.poll().get());
+                }
+
+                // Keep only the lookbehind for the next chunk.
+                int keep = Math.max(0, end - KanjiParser.MAX_LOOKBEHIND);
+                text.delete(0, keep);
+                start = end - keep;
+            }
+            while (!pending.isEmpty()) {
+                writer.write(pending.poll().get());
+            }
+            writer.flush();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        } finally {
+            pending.forEach(future -> future.cancel(true));
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Find the end of the chunk starting at the given position.
+     *
+     * @return the position of the sentence terminator or the clause boundary that ends the chunk, or -1 if
+     * more text is needed
+     */
+    int findChunkEnd(CharSequence text, int start, int limit) {
+        long maxEnd = start + (long) chunkSize * MAX_CHUNK_FACTOR;
+        for (int i = start + chunkSize; i < limit; i++) {
+            // A line break within braille text does not reset the braille decoder.
+            if (isTerminator(text.charAt(i)) && !isBraille(text.charAt(i - 1))) {
+                return i;
+            }
+            if (i >= maxEnd && isClauseBoundary(text, i)) {
+                return i;
+            }
+        }
+        return limit == text.length() ? limit : -1;
+    }
+
+    private String parseChunk(String precedingText, String chunk, int length) throws Exception {
+        StringWriter out = new StringWriter();
+        KanjiParser parser = new KanjiParser(new JWriter(converter), converter.llmClient);
+        parser.resolver = resolver;
+        parser.pipeline = converter.settingLlmPipeline;
+        parser.deadline = deadline;
+        parser.parse(new StringReader(chunk), out, precedingText, length);
+        return out.toString();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada;
+
+import com.iciao.kanada.llm.LlmClient;
+import com.iciao.kanada.llm.ReadingRequest;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+/**
+ * Resolve the ambiguous words of a whole text with an LLM before the text is converted.<br>
+ * The parser first runs over the text to collect the words and their contexts. The occurrences are grouped
+ * by the word and the normalized context, and the unique set is sent to the LLM concurrently in batches of
+ * {@value #BATCH_SIZE} words per request. The parser then runs again and uses the readings decided for each
+ * occurrence.<br>
+ * A word found in more than {@value #MAX_CONTEXTS} distinct contexts is resolved in its most frequent
+ * contexts only, and the reading chosen most often is used for all of its occurrences, so that a repeated
+ * name is read the same way throughout the text.<br>
+ * The decisions do not change once they are resolved, and are read without locking by the threads that
+ * convert the text.
+ *
+ * @author Masahiko Sato
+ */
+class ReadingResolver {
+    private static final Logger LOGGER = Logger.getLogger(ReadingResolver.class.getName());
+    static final int MAX_CONTEXTS = 3;
+    static final int BATCH_SIZE = 8;
+
+    private final Map<String, Word> words = new LinkedHashMap<>();
+    // Words with their decisions, published when they are resolved, or null while collecting
+    private volatile Map<String, Word> resolvedWords;
+
+    // An ambiguous word with the number of occurrences in each normalized context
+    private static class Word {
+        private final String kanji;
+        private final List<String> readings;
+        private final Map<String, Integer> counts = new HashMap<>();
+        private final Map<String, String> contexts = new HashMap<>();
+        private final Map<String, String> decisions = new ConcurrentHashMap<>();
+        // Decisions copied when they are resolved, and the reading for all the contexts if any
+        private Map<String, String> decided = Map.of();
+        private String reading;
+
+        private Word(String kanji, List<String> readings) {
+            this.kanji = kanji;
+            this.readings = List.copyOf(readings);
+        }
+    }
+
+    private static String normalize(String context) {
+        return Normalizer.normalize(context, Normalizer.Form.NFKC).replaceAll("\\s", "");
+    }
+
+    /**
+     * Record an occurrence while collecting, or look up the reading decided for it afterwards.
+     *
+     * @return The reading, or null if it is not decided
+     */
+    String getReading(String kanji, List<String> possibleReadings, String context) {
+        String wordKey = kanji + '\u0000' + String.join("|", possibleReadings);
+        String normalized = normalize(context);
+        Map<String, Word> resolved = resolvedWords;
+        if (resolved == null) {
+            synchronized (this) {
+                resolved = resolvedWords;
+                if (resolved == null) {
+                    Word word = words.computeIfAbsent(wordKey, key -> new Word(kanji, possibleReadings));
+                    word.counts.merge(normalized, 1, Integer::sum);
+                    word.contexts.putIfAbsent(normalized, context);
+                    return null;
+                }
+            }
+        }
+        Word word = resolved.get(wordKey);
+        if (word == null) {
+            return null;
+        }
+        return word.reading != null ? word.reading : word.decided.get(normalized);
+    }
+
+    // An occurrence sent to the LLM
+    private record Occurrence(Word word, String context) {
+    }
+
+    /**
+     * @return The number of LLM requests needed to resolve the collected words
+     */
+    synchronized int getRequestCount() {
+        int count = words.values().stream().mapToInt(word -> Math.min(word.counts.size(), MAX_CONTEXTS)).sum();
+        return (count + BATCH_SIZE - 1) / BATCH_SIZE;
+    }
+
+    /**
+     * Send the unique occurrences to the LLM and stop collecting.
+     *
+     * @param concurrency The maximum number of concurrent requests
+     * @param deadline    The deadline of the conversion, or {@link LlmBudget#NO_DEADLINE}, after which the
+     *                    remaining requests are cancelled and their words read from the dictionary
+     */
+    synchronized void resolve(LlmClient llmClient, int concurrency, long deadline) throws InterruptedException {
+        List<Occurrence> occurrences = new ArrayList<>();
+        for (Word word : words.values()) {
+            word.counts.entrySet().stream()
+                    .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                    .limit(MAX_CONTEXTS)
+                    .forEach(entry -> occurrences.add(new Occurrence(word, entry.getKey())));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < occurrences.size(); i += BATCH_SIZE) {
+                List<Occurrence> batch = occurrences.subList(i, Math.min(occurrences.size(), i + BATCH_SIZE));
+                futures.add(executor.submit(() -> resolveBatch(llmClient, batch)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get(Math.max(0, LlmBudget.remaining(deadline)), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException e) {
+                    LOGGER.warning("Failed to select best reading: " + e.getMessage());
+                } catch (TimeoutException e) {
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (Word word : words.values()) {
+            // The answers of the requests cancelled at the deadline are not used, even if they arrive later.
+            word.decided = Map.copyOf(word.decisions);
+            if (word.counts.size() > MAX_CONTEXTS) {
+                // Choose the reading decided for the most occurrences.
+                Map<String, Integer> votes = new HashMap<>();
+                word.decided.forEach((context, reading) -> votes.merge(reading, word.counts.get(context), Integer::sum));
+                word.reading = votes.entrySet().stream()
+                        .max(Map.Entry.comparingByValue())
+                        .map(Map.Entry::getKey)
+                        .orElse(null);
+            }
+        }
+        // Publish the decisions to the threads reading them without locking.
+        resolvedWords = Map.copyOf(words);
+    }
+
+    private static void resolveBatch(LlmClient llmClient, List<Occurrence> batch) {
+        List<ReadingRequest> requests = new ArrayList<>(batch.size());
+        for (Occurrence occurrence : batch) {
+            Word word = occurrence.word();
+            requests.add(new ReadingRequest(word.kanji, word.readings, word.contexts.get(occurrence.context())));
+        }
+        try {
+            List<String> readings = llmClient.selectBestReadings(requests);
+            for (int i = 0; i < batch.size() && i < readings.size(); i++) {
+                Word word = batch.get(i).word();
+                if (word.readings.contains(readings.get(i))) {
+                    word.decisions.put(batch.get(i).context(), readings.get(i));
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.warning("Failed to select best readings: " + e.getMessage());
+        }
+    }
+}
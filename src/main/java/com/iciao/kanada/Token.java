@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada;
+
+/**
+ * A word or a run of characters returned by {@link TokenIterator}.<br>
+ * The same instance is reused for every token, so its values are only valid until the next call of
+ * {@link TokenIterator#next()}. Copy them if they have to be kept.
+ *
+ * @author Masahiko Sato
+ */
+public final class Token {
+    int start;
+    int end;
+    final StringBuilder reading = new StringBuilder();
+    final StringBuilder converted = new StringBuilder();
+    boolean dictionaryWord;
+    int candidateCount;
+
+    Token() {
+    }
+
+    /**
+     * @return The offset of the first character of the token in the source text
+     */
+    public int start() {
+        return start;
+    }
+
+    /**
+     * @return The offset after the last character of the token in the source text
+     */
+    public int end() {
+        return end;
+    }
+
+    /**
+     * @return The reading in hiragana for a dictionary word, or the source text otherwise
+     */
+    public CharSequence reading() {
+        return reading;
+    }
+
+    /**
+     * @return The output of the converter for the token
+     */
+    public CharSequence converted() {
+        return converted;
+    }
+
+    /**
+     * @return Whether the token is a word found in the dictionary
+     */
+    public boolean isDictionaryWord() {
+        return dictionaryWord;
+    }
+
+    /**
+     * @return The number of possible readings of a dictionary word, or 0 for other tokens
+     */
+    public int candidateCount() {
+        return candidateCount;
+    }
+
+    @Override
+    public String toString() {
+        return start + "-" + end + ":" + converted;
+    }
+}
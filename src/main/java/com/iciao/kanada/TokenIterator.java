@@ -0,0 +1,175 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada;
+
+import java.io.BufferedReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Split a text into tokens while converting it.<br>
+ * A token is either a dictionary word or a run of other characters, and runs are split at the word
+ * boundaries where {@link Kanada#withSpaces()} inserts a separator and around whitespace, unless the converter
+ * maps the characters around them together, as it does for the braille. The tokens cover the whole text
+ * without gaps, and their converted forms join up to the output of the converter without the separators.<br>
+ * The returned {@link Token} is a view reused for every token.
+ *
+ * <pre>{@code
+ * TokenIterator tokens = Kanada.create().toRomaji().build().tokenize("東京に住む");
+ * while (tokens.hasNext()) {
+ *     Token token = tokens.next(); // "tokyo" (0-2), "ni" (2-3), "sumu" (3-5)
+ * }
+ * }</pre>
+ *
+ * @author Masahiko Sato
+ */
+public final class TokenIterator implements Iterator<Token> {
+    private final StringBuilder text;
+    private final KanjiParser parser;
+    private final JWriter jWriter;
+    private final BufferedReader noInput = new BufferedReader(Reader.nullReader(), 1);
+    private final StringBuilder output = new StringBuilder();
+    // Appends to the output without creating a string for every token
+    private final Writer[] writers = {new Writer() {
+        @Override
+        public Writer append(CharSequence csq) {
+            output.append(csq);
+            return this;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            output.append(cbuf, off, len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }};
+    private final Token token = new Token();
+    private int position;
+    // Run of characters converted at once, whose output is held in the output
+    private final Alignment units = new Alignment();
+    private int runStart;
+    private int runEnd;
+    private int unitIndex;
+
+    TokenIterator(Converter converter, CharSequence text) {
+        this.text = new StringBuilder(text);
+        jWriter = new JWriter(converter);
+        parser = new KanjiParser(new JWriter[]{jWriter}, converter.llmClient, true);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < text.length();
+    }
+
+    @Override
+    public Token next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (position < runEnd) {
+            return nextInRun();
+        }
+        int start = position;
+        output.setLength(0);
+        try {
+            if (parser.isDictionaryCandidate(text.codePointAt(position))) {
+                position += parser.processCharacterAt(noInput, writers, text, position, text.length() - position);
+                if (parser.lastReading != null) {
+                    token.reading.setLength(0);
+                    token.reading.append(parser.lastReading);
+                    token.converted.setLength(0);
+                    token.converted.append(output);
+                    return setToken(start, true, parser.lastCandidateCount);
+                }
+            }
+            // Convert the run up to the next dictionary word at once, as the converter does.
+            while (position < text.length()) {
+                if (position > start && parser.isDictionaryCandidate(text.codePointAt(position))) {
+                    break;
+                }
+                position += parser.processCharacterAt(noInput, writers, text, position, text.length() - position);
+            }
+            units.clear();
+            jWriter.units = units;
+            jWriter.flushBuffer(writers[0]);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            jWriter.units = null;
+        }
+        runStart = start;
+        runEnd = position;
+        unitIndex = 0;
+        position = start;
+        return nextInRun();
+    }
+
+    /**
+     * @return The next part of the current run, which ends at a run boundary where the output can be split
+     */
+    private Token nextInRun() {
+        int start = position;
+        int index = unitIndex + 1;
+        while (index < units.size() - 1 && !isRunBoundary(runStart + units.sourceOffset(index))) {
+            index++;
+        }
+        position = runStart + units.sourceOffset(index);
+        if (index == units.size() - 1) {
+            // The last unit ends the run, even if the output could not be split.
+            position = runEnd;
+        }
+        token.reading.setLength(0);
+        token.reading.append(text, start, position);
+        token.converted.setLength(0);
+        token.converted.append(output, units.outputOffset(unitIndex), units.outputOffset(index));
+        unitIndex = index;
+        return setToken(start, false, 0);
+    }
+
+    private boolean isRunBoundary(int i) {
+        return KanjiParser.isBoundaryAt(text, i)
+                || Character.isWhitespace(text.charAt(i)) != Character.isWhitespace(text.charAt(i - 1));
+    }
+
+    /**
+     * Set the rest of the token, whose reading and converted form are already in their buffers.
+     */
+    private Token setToken(int start, boolean dictionaryWord, int candidateCount) {
+        token.start = start;
+        token.end = position;
+        token.dictionaryWord = dictionaryWord;
+        token.candidateCount = candidateCount;
+        return token;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CoderResult;
+
+/**
+ * Convert UTF-8 bytes into UTF-8 bytes.<br>
+ * The bytes are decoded straight into the parser and the output is encoded straight into the byte buffer,
+ * without the charset decoder and encoder layers of readers and writers. A code point may be split
+ * across input buffers. Malformed input is replaced with U+FFFD, and an unpaired surrogate in the
+ * output with '?'.<br>
+ * An instance converts a single stream and is not thread-safe. The text is parsed sequentially.
+ *
+ * <pre>{@code
+ * Utf8Converter utf8 = new Utf8Converter(converter);
+ * CoderResult result = utf8.convert(in, out, endOfInput); // as CharsetDecoder#decode
+ * }</pre>
+ *
+ * @author Masahiko Sato
+ */
+public final class Utf8Converter {
+    // Characters decoded ahead of the parser, so that it never runs out of lookahead before the end.
+    private static final int LOOKAHEAD = 128;
+    private static final char REPLACEMENT = '�';
+
+    private final KanjiParser parser;
+    private final char[] decoded = new char[LOOKAHEAD * 8];
+    private int decodedStart;
+    private int decodedEnd;
+    // The code point being decoded, the number of continuation bytes still expected and the minimum value
+    private int codePoint;
+    private int pendingBytes;
+    private int minimum;
+
+    private final StringBuilder encoded = new StringBuilder();
+    private boolean isFinished;
+
+    public Utf8Converter(Converter converter) {
+        if (converter == null) {
+            throw new IllegalArgumentException("Converter must not be null");
+        }
+        parser = new KanjiParser(new JWriter(converter), converter.llmClient);
+        parser.begin(new Input(), new Writer[]{new Output()}, "", Integer.MAX_VALUE);
+    }
+
+    /**
+     * Convert as many bytes as possible from the input buffer into the output buffer.
+     *
+     * @param endOfInput Whether the input buffer holds the last bytes of the text
+     * @return {@link CoderResult#UNDERFLOW} when more input is needed, or when the conversion has finished
+     * if it is the end of the input, or {@link CoderResult#OVERFLOW} when the output buffer is full
+     */
+    public CoderResult convert(ByteBuffer in, ByteBuffer out, boolean endOfInput) throws IOException {
+        if (in == null || out == null) {
+            throw new IllegalArgumentException("Buffers must not be null");
+        }
+        while (true) {
+            if (!encode(out)) {
+                return CoderResult.OVERFLOW;
+            }
+            if (isFinished) {
+                return CoderResult.UNDERFLOW;
+            }
+            decode(in);
+            boolean isAtEnd = endOfInput && !in.hasRemaining();
+            if (isAtEnd && pendingBytes > 0 && decodedEnd < decoded.length) {
+                pendingBytes = 0;
+                decoded[decodedEnd++] = REPLACEMENT;
+            }
+            if (!isAtEnd && decodedEnd - decodedStart < LOOKAHEAD) {
+                return CoderResult.UNDERFLOW;
+            }
+            try {
+                if (parser.isAtSentenceEnd()) {
+                    parser.flush();
+                }
+                isFinished = !parser.step();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * @return Whether the whole text has been converted and written out
+     */
+    public boolean isFinished() {
+        return isFinished && encoded.isEmpty();
+    }
+
+    /**
+     * Convert all the bytes read from a channel and write them to another channel.
+     */
+    public void process(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        if (in == null || out == null) {
+            throw new IllegalArgumentException("Channels must not be null");
+        }
+        ByteBuffer src = ByteBuffer.allocate(8192);
+        ByteBuffer dst = ByteBuffer.allocate(8192);
+        boolean endOfInput = false;
+        while (!isFinished()) {
+            if (!endOfInput && in.read(src) < 0) {
+                endOfInput = true;
+            }
+            src.flip();
+            convert(src, dst, endOfInput);
+            src.compact();
+            dst.flip();
+            while (dst.hasRemaining()) {
+                out.write(dst);
+            }
+            dst.clear();
+        }
+    }
+
+    private void decode(ByteBuffer in) {
+        if (decodedStart > 0 && decodedEnd > decoded.length - 2) {
+            System.arraycopy(decoded, decodedStart, decoded, 0, decodedEnd - decodedStart);
+            decodedEnd -= decodedStart;
+            decodedStart = 0;
+        }
+        while (in.hasRemaining() && decodedEnd <= decoded.length - 2) {
+            int b = in.get() & 0xff;
+            if (pendingBytes > 0) {
+                if ((b & 0xc0) == 0x80) {
+                    codePoint = codePoint << 6 | b & 0x3f;
+                    if (--pendingBytes == 0) {
+                        if (codePoint < minimum || Character.isSurrogate((char) codePoint) && codePoint < 0x10000
+                                || codePoint > Character.MAX_CODE_POINT) {
+                            decoded[decodedEnd++] = REPLACEMENT;
+                        } else {
+                            decodedEnd += Character.toChars(codePoint, decoded, decodedEnd);
+                        }
+                    }
+                    continue;
+                }
+                // The sequence is cut short, so the byte starts a new one.
+                pendingBytes = 0;
+                decoded[decodedEnd++] = REPLACEMENT;
+                if (decodedEnd > decoded.length - 2) {
+                    in.position(in.position() - 1);
+                    return;
+                }
+            }
+            if (b < 0x80) {
+                decoded[decodedEnd++] = (char) b;
+            } else if (b >= 0xc2 && b < 0xe0) {
+                codePoint = b & 0x1f;
+                pendingBytes = 1;
+                minimum = 0x80;
+            } else if (b >= 0xe0 && b < 0xf0) {
+                codePoint = b & 0x0f;
+                pendingBytes = 2;
+                minimum = 0x800;
+            } else if (b >= 0xf0 && b < 0xf5) {
+                codePoint = b & 0x07;
+                pendingBytes = 3;
+                minimum = 0x10000;
+            } else {
+                decoded[decodedEnd++] = REPLACEMENT;
+            }
+        }
+    }
+
+    /**
+     * @return Whether all the converted characters have been written into the buffer
+     */
+    private boolean encode(ByteBuffer out) {
+        int i = 0;
+        int length = encoded.length();
+        while (i < length) {
+            char c = encoded.charAt(i);
+            int cp = c;
+            int count = 1;
+            if (Character.isHighSurrogate(c)) {
+                if (i + 1 == length && !isFinished) {
+                    // Wait for the low surrogate.
+                    break;
+                }
+                if (i + 1 < length && Character.isLowSurrogate(encoded.charAt(i + 1))) {
+                    cp = Character.toCodePoint(c, encoded.charAt(i + 1));
+                    count = 2;
+                } else {
+                    cp = '?';
+                }
+            } else if (Character.isLowSurrogate(c)) {
+                cp = '?';
+            }
+            int size = cp < 0x80 ? 1 : cp < 0x800 ? 2 : cp < 0x10000 ? 3 : 4;
+            if (out.remaining() < size) {
+                break;
+            }
+            if (size == 1) {
+                out.put((byte) cp);
+            } else if (size == 2) {
+                out.put((byte) (0xc0 | cp >> 6));
+                out.put((byte) (0x80 | cp & 0x3f));
+            } else if (size == 3) {
+                out.put((byte) (0xe0 | cp >> 12));
+                out.put((byte) (0x80 | cp >> 6 & 0x3f));
+                out.put((byte) (0x80 | cp & 0x3f));
+            } else {
+                out.put((byte) (0xf0 | cp >> 18));
+                out.put((byte) (0x80 | cp >> 12 & 0x3f));
+                out.put((byte) (0x80 | cp >> 6 & 0x3f));
+                out.put((byte) (0x80 | cp & 0x3f));
+            }
+            i += count;
+        }
+        encoded.delete(0, i);
+        return encoded.isEmpty() || encoded.length() == 1 && !isFinished && Character.isHighSurrogate(encoded.charAt(0));
+    }
+
+    // Supplies the decoded characters to the parser
+    private class Input extends BufferedReader {
+        private Input() {
+            super(Reader.nullReader(), 1);
+        }
+
+        @Override
+        public int read() {
+            return decodedStart < decodedEnd ? decoded[decodedStart++] : -1;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (decodedStart == decodedEnd) {
+                return -1;
+            }
+            int count = Math.min(len, decodedEnd - decodedStart);
+            System.arraycopy(decoded, decodedStart, cbuf, off, count);
+            decodedStart += count;
+            return count;
+        }
+    }
+
+    // Collects the converted characters to be encoded
+    private class Output extends Writer {
+        @Override
+        public Writer append(CharSequence csq) {
+            encoded.append(csq);
+            return this;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            encoded.append(cbuf, off, len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada.llm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Build the prompt of a batch of ambiguous words and parse the answer.<br>
+ * The targets and their readings are numbered in the prompt, and the model is asked for a JSON array of
+ * the numbers of the readings in the order of the targets. An array of the readings themselves is accepted
+ * as well. A reading that cannot be found in the answer falls back to the first candidate.
+ *
+ * @author Masahiko Sato
+ */
+final class BatchPrompt {
+    private static final Pattern ARRAY_START = Pattern.compile("\\[\\s*[\"\\d]");
+
+    private BatchPrompt() {
+    }
+
+    /**
+     * Replace {targets} in the template with the numbered targets.
+     */
+    static String build(String template, List<ReadingRequest> requests) {
+        StringBuilder targets = new StringBuilder();
+        for (int i = 0; i < requests.size(); i++) {
+            ReadingRequest request = requests.get(i);
+            targets.append(i + 1).append(". ").append(request.context().replace("\n", "")).append('\n')
+                    .append("   [[").append(request.kanji()).append("]]: ")
+                    .append(ReadingPrompt.numberReadings(request.possibleReadings())).append('\n');
+        }
+        return template.replace("{targets}", targets);
+    }
+
+    /**
+     * Parse the answer into one reading for each request.
+     */
+    static List<String> parse(String content, List<ReadingRequest> requests) {
+        List<String> answers = parseArray(content);
+        List<String> readings = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            List<String> possibleReadings = requests.get(i).possibleReadings();
+            String answer = i < answers.size() ? answers.get(i) : "";
+            readings.add(possibleReadings.isEmpty() ? "" : ReadingPrompt.match(answer, answer, possibleReadings));
+        }
+        return readings;
+    }
+
+    private static List<String> parseArray(String content) {
+        Matcher matcher = ARRAY_START.matcher(content);
+        int end = content.lastIndexOf(']');
+        if (matcher.find() && end > matcher.start()) {
+            int start = matcher.start();
+            try {
+                String[] answers = LlmTransport.GSON.fromJson(content.substring(start, end + 1), String[].class);
+                if (answers != null) {
+                    return List.of(answers);
+                }
+            } catch (Exception e) {
+                // Fall back to the lines of the answer
+            }
+        }
+        List<String> answers = new ArrayList<>();
+        for (String line : content.split("\n")) {
+            if (!line.isBlank()) {
+                answers.add(line.trim());
+            }
+        }
+        return answers;
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada.llm;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Logger;
+
+/**
+ * LLM client that caches the readings selected by another client.<br>
+ * A reading is cached for the model, the kanji word, the set of possible readings and the context
+ * normalized with NFKC and without whitespace. The recently used readings are kept in memory, and all
+ * of them can also be kept in an append-only file that is loaded again at the next start.<br>
+ * The file holds a record of the key and the reading for each entry, and only the fingerprints of the
+ * keys and the offsets of the records are held in memory.
+ *
+ * @author Masahiko Sato
+ */
+public class CachingLlmClient implements LlmClient, Closeable {
+    private static final Logger LOGGER = Logger.getLogger(CachingLlmClient.class.getName());
+
+    private final LlmClient client;
+    private final Map<String, String> memoryCache;
+    private final RandomAccessFile file;
+    // Offsets of the records in the file by the fingerprints of their keys, chained on collisions
+    private final Map<Long, long[]> fileIndex = new HashMap<>();
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Creates a client that caches the readings in memory.
+     *
+     * @param client   The client to select the readings that are not cached
+     * @param capacity The number of readings kept in memory
+     */
+    public CachingLlmClient(LlmClient client, int capacity) {
+        if (client == null || capacity < 1) {
+            throw new IllegalArgumentException("Client must not be null and capacity must be positive");
+        }
+        this.client = client;
+        this.memoryCache = newMemoryCache(capacity);
+        this.file = null;
+    }
+
+    /**
+     * Creates a client that caches the readings in memory and in a file.
+     *
+     * @param client    The client to select the readings that are not cached
+     * @param capacity  The number of readings kept in memory
+     * @param cacheFile The file to keep all the readings, which is created if it does not exist
+     * @throws IOException If the file cannot be opened or read
+     */
+    public CachingLlmClient(LlmClient client, int capacity, Path cacheFile) throws IOException {
+        if (client == null || capacity < 1 || cacheFile == null) {
+            throw new IllegalArgumentException("Client and cache file must not be null and capacity must be positive");
+        }
+        this.client = client;
+        this.memoryCache = newMemoryCache(capacity);
+        this.file = new RandomAccessFile(cacheFile.toFile(), "rw");
+        loadIndex(cacheFile);
+    }
+
+    // Least recently used readings are evicted first.
+    private static Map<String, String> newMemoryCache(int capacity) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    private void loadIndex(Path cacheFile) throws IOException {
+        long offset = 0;
+        long length = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile.toFile())))) {
+            while (offset < length) {
+                String key = in.readUTF();
+                String reading = in.readUTF();
+                addToIndex(key, offset);
+                offset += 4 + utfLength(key) + utfLength(reading);
+            }
+        } catch (EOFException e) {
+            // The last record was not written completely.
+            LOGGER.warning("Truncating incomplete cache record at " + offset);
+            file.setLength(offset);
+        }
+    }
+
+    private static int utfLength(String str) {
+        int length = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            length += c >= 0x01 && c <= 0x7f ? 1 : c <= 0x7ff ? 2 : 3;
+        }
+        return length;
+    }
+
+    private void addToIndex(String key, long offset) {
+        fileIndex.merge(fingerprint(key), new long[]{offset}, (offsets, added) -> {
+            long[] merged = Arrays.copyOf(offsets, offsets.length + 1);
+            merged[offsets.length] = added[0];
+            return merged;
+        });
+    }
+
+    // 64-bit FNV-1a hash of the key
+    private static long fingerprint(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static String cacheKey(String model, String kanji, List<String> possibleReadings, String context) {
+        String normalizedContext = Normalizer.normalize(context, Normalizer.Form.NFKC).replaceAll("\\s", "");
+        return model + '\u0000' + kanji + '\u0000' + String.join("|", new TreeSet<>(possibleReadings)) + '\u0000' + normalizedContext;
+    }
+
+    public boolean testConnection() {
+        return client.testConnection();
+    }
+
+    public String getModel() {
+        return client.getModel();
+    }
+
+    /**
+     * Select the most appropriate reading for a kanji word from the cache, or from the client if not cached.
+     *
+     * @param kanji            The kanji word to get readings for
+     * @param possibleReadings List of possible readings
+     * @param context          The surrounding text for context
+     * @return The selected reading based on context by Generative AI
+     * @throws IOException          If an I/O error occurs
+     * @throws InterruptedException If the operation is interrupted
+     */
+    public String selectBestReading(String kanji, List<String> possibleReadings, String context)
+            throws IOException, InterruptedException {
+        if (possibleReadings.isEmpty()) {
+            return "";
+        }
+        String key = cacheKey(client.getModel(), kanji, possibleReadings, context);
+        String reading = get(key);
+        if (reading != null && possibleReadings.contains(reading)) {
+            return reading;
+        }
+        reading = client.selectBestReading(kanji, possibleReadings, context);
+        put(key, reading);
+        return reading;
+    }
+
+    /**
+     * Select the most appropriate reading for a kanji word from the cache, or from the client without waiting
+     * for the answer if not cached.
+     *
+     * @param kanji            The kanji word to get readings for
+     * @param possibleReadings List of possible readings
+     * @param context          The surrounding text for context
+     * @return A future of the selected reading
+     */
+    public CompletableFuture<String> selectBestReadingAsync(String kanji, List<String> possibleReadings, String context) {
+        if (possibleReadings.isEmpty()) {
+            return CompletableFuture.completedFuture("");
+        }
+        String key = cacheKey(client.getModel(), kanji, possibleReadings, context);
+        try {
+            String reading = get(key);
+            if (reading != null && possibleReadings.contains(reading)) {
+                return CompletableFuture.completedFuture(reading);
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return client.selectBestReadingAsync(kanji, possibleReadings, context).thenApply(reading -> {
+            try {
+                put(key, reading);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            return reading;
+        });
+    }
+
+    /**
+     * Select the most appropriate readings for several kanji words, sending only the words not cached
+     * to the client as a single batch.
+     *
+     * @param requests The words with their possible readings and contexts
+     * @return The selected readings in the order of the requests
+     * @throws IOException          If an I/O error occurs
+     * @throws InterruptedException If the operation is interrupted
+     */
+    public List<String> selectBestReadings(List<ReadingRequest> requests)
+            throws IOException, InterruptedException {
+        String[] readings = new String[requests.size()];
+        String[] keys = new String[requests.size()];
+        List<ReadingRequest> misses = new ArrayList<>();
+        List<Integer> missIndexes = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            ReadingRequest request = requests.get(i);
+            if (request.possibleReadings().isEmpty()) {
+                readings[i] = "";
+                continue;
+            }
+            keys[i] = cacheKey(client.getModel(), request.kanji(), request.possibleReadings(), request.context());
+            String reading = get(keys[i]);
+            if (reading != null && request.possibleReadings().contains(reading)) {
+                readings[i] = reading;
+            } else {
+                misses.add(request);
+                missIndexes.add(i);
+            }
+        }
+        if (!misses.isEmpty()) {
+            List<String> selected = client.selectBestReadings(misses);
+            for (int i = 0; i < missIndexes.size(); i++) {
+                int index = missIndexes.get(i);
+                readings[index] = selected.get(i);
+                put(keys[index], readings[index]);
+            }
+        }
+        return Arrays.asList(readings);
+    }
+
+    private synchronized String get(String key) throws IOException {
+        String reading = memoryCache.get(key);
+        if (reading == null && file != null) {
+            long[] offsets = fileIndex.get(fingerprint(key));
+            // The latest record wins.
+            for (int i = offsets == null ? -1 : offsets.length - 1; i >= 0 && reading == null; i--) {
+                file.seek(offsets[i]);
+                if (file.readUTF().equals(key)) {
+                    reading = file.readUTF();
+                    memoryCache.put(key, reading);
+                }
+            }
+        }
+        if (reading == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return reading;
+    }
+
+    private synchronized void put(String key, String reading) throws IOException {
+        memoryCache.put(key, reading);
+        if (file != null) {
+            long offset = file.length();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeUTF(key);
+                out.writeUTF(reading);
+            }
+            file.seek(offset);
+            file.write(bytes.toByteArray());
+            addToIndex(key, offset);
+        }
+    }
+
+    /**
+     * @return The number of readings found in the cache
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return The number of readings not found in the cache
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+}
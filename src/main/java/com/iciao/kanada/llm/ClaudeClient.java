@@ -23,16 +23,14 @@
  */
 package com.iciao.kanada.llm;
 
-import com.google.gson.Gson;
-
 import java.io.IOException;
-import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
-import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Client for interacting with Claude API to get context-aware readings for kanji.
@@ -40,10 +38,12 @@ import java.util.List;
  * @author Masahiko Sato
  */
 public class ClaudeClient implements LlmClient {
+    private static final int DEFAULT_MAX_TOKENS = 1000;
+
     private final String apiUrl;
     private final String apiKey;
     private final String model;
-    private final HttpClient httpClient;
+    private final LlmTransport transport;
     private final LlmConfig.ClaudeConfig config;
 
     /**
@@ -57,14 +57,15 @@ public class ClaudeClient implements LlmClient {
         this.apiUrl = apiUrl;
         this.apiKey = apiKey;
         this.model = model;
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(30))
-                .build();
         try {
             this.config = LlmConfig.getInstance().getClaude();
         } catch (Exception e) {
             throw new RuntimeException("Failed to load Claude configuration", e);
         }
+        LlmConfig.ModelConfig modelConfig = config.models.get(model);
+        this.transport = new LlmTransport("claude", model, HttpClient.Version.HTTP_2,
+                Duration.ofSeconds(30), config.requestTimeout, config.maxConcurrentRequests,
+                LlmConfig.RateLimits.combine(config.rateLimits, modelConfig != null ? modelConfig.rateLimits : null));
     }
 
     /**
@@ -75,14 +76,13 @@ public class ClaudeClient implements LlmClient {
     @Override
     public boolean testConnection() {
         try {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(apiUrl + "/models"))
+            HttpRequest request = transport.newRequest(apiUrl + "/models")
                     .header("x-api-key", apiKey)
                     .header("anthropic-version", "2023-06-01")
                     .GET()
                     .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = transport.send(request);
             return response.statusCode() == 200;
         } catch (Exception e) {
             return false;
@@ -106,6 +106,69 @@ public class ClaudeClient implements LlmClient {
             return possibleReadings.isEmpty() ? "" : possibleReadings.get(0);
         }
 
+        HttpRequest request = createReadingRequest(kanji, possibleReadings, context);
+        if (isStreaming()) {
+            return transport.stream(request,
+                    lines -> StreamingAnswer.read(lines, ClaudeClient::parseChunk, possibleReadings));
+        }
+        String response = generateCompletion(request);
+        return parseResponse(response, possibleReadings);
+    }
+
+    /**
+     * Select the most appropriate readings for several kanji words in a single request.
+     *
+     * @param requests The words with their possible readings and contexts
+     * @return The selected readings in the order of the requests
+     * @throws IOException          If an I/O error occurs
+     * @throws InterruptedException If the operation is interrupted
+     */
+    @Override
+    public List<String> selectBestReadings(List<ReadingRequest> requests)
+            throws IOException, InterruptedException {
+        if (requests.size() <= 1) {
+            return LlmClient.super.selectBestReadings(requests);
+        }
+
+        LlmConfig.ModelConfig modelConfig = config.models.get(model);
+        String systemMessage = getConfigValue(modelConfig, m -> m.batchSystemPrompt, config.batchSystemPrompt);
+        String template = getConfigValue(modelConfig, m -> m.batchUserPromptTemplate, config.batchUserPromptTemplate);
+
+        String response = generateCompletion(createRequest(systemMessage, BatchPrompt.build(template, requests),
+                getMaxTokens(requests.size()), false));
+        return parseBatchResponse(response, requests);
+    }
+
+    /**
+     * Select the most appropriate reading for a kanji word with an asynchronous request.
+     *
+     * @param kanji            The kanji word to get readings for
+     * @param possibleReadings List of possible readings
+     * @param context          The surrounding text for context
+     * @return A future of the selected reading
+     */
+    @Override
+    public CompletableFuture<String> selectBestReadingAsync(String kanji, List<String> possibleReadings, String context) {
+        if (possibleReadings.size() <= 1) {
+            return CompletableFuture.completedFuture(possibleReadings.isEmpty() ? "" : possibleReadings.get(0));
+        }
+
+        HttpRequest request = createReadingRequest(kanji, possibleReadings, context);
+        if (isStreaming()) {
+            return transport.streamAsync(request,
+                    lines -> StreamingAnswer.read(lines, ClaudeClient::parseChunk, possibleReadings));
+        }
+        return transport.sendAsync(request)
+                .thenApply(response -> {
+                    try {
+                        return parseResponse(checkResponse(response), possibleReadings);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    private HttpRequest createReadingRequest(String kanji, List<String> possibleReadings, String context) {
         LlmConfig.ModelConfig modelConfig = config.models.get(model);
         String systemMessage = getConfigValue(modelConfig, m -> m.systemPrompt, config.systemPrompt);
         String template = getConfigValue(modelConfig, m -> m.userPromptTemplate, config.userPromptTemplate);
@@ -113,34 +176,35 @@ public class ClaudeClient implements LlmClient {
         String userMessage = template
                 .replace("{kanji}", kanji)
                 .replace("{context}", context.replace("\n", ""))
-                .replace("{readings}", String.join(" / ", possibleReadings));
+                .replace("{readings}", ReadingPrompt.numberReadings(possibleReadings));
 
-        String response = generateCompletion(systemMessage, userMessage);
-        return parseResponse(response, possibleReadings);
+        return createRequest(systemMessage, userMessage, getMaxTokens(1), isStreaming());
     }
 
-    private String generateCompletion(String systemMessage, String userMessage) throws IOException, InterruptedException {
-        Gson gson = new Gson();
+    private String generateCompletion(HttpRequest httpRequest) throws IOException, InterruptedException {
+        return checkResponse(transport.send(httpRequest));
+    }
 
+    private HttpRequest createRequest(String systemMessage, String userMessage, int maxTokens, boolean stream) {
         ClaudeRequest request = new ClaudeRequest(
                 model,
-                1000,
+                maxTokens,
                 systemMessage,
-                List.of(new Message("user", userMessage))
+                List.of(new Message("user", userMessage)),
+                stream ? Boolean.TRUE : null
         );
 
-        String requestBody = gson.toJson(request);
+        String requestBody = LlmTransport.GSON.toJson(request);
 
-        HttpRequest httpRequest = HttpRequest.newBuilder()
-                .uri(URI.create(apiUrl + "/messages"))
+        return transport.newRequest(apiUrl + "/messages")
                 .header("Content-Type", "application/json")
                 .header("x-api-key", apiKey)
                 .header("anthropic-version", "2023-06-01")
                 .POST(HttpRequest.BodyPublishers.ofString(requestBody))
                 .build();
+    }
 
-        HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-
+    private static String checkResponse(HttpResponse<String> response) throws IOException {
         if (response.statusCode() != 200) {
             throw new IOException("API request failed with status code: " + response.statusCode());
         }
@@ -150,18 +214,9 @@ public class ClaudeClient implements LlmClient {
 
     private String parseResponse(String response, List<String> possibleReadings) {
         try {
-            ClaudeResponse claudeResponse = new Gson().fromJson(response, ClaudeResponse.class);
-            String content = claudeResponse.content.get(0).text.trim();
-
-            List<String> sortedReadings = possibleReadings.stream()
-                    .sorted(Comparator.comparing(String::length).reversed())
-                    .toList();
-
-            for (String reading : sortedReadings) {
-                if (content.contains(reading)) {
-                    return reading;
-                }
-            }
+            ClaudeResponse claudeResponse = LlmTransport.GSON.fromJson(response, ClaudeResponse.class);
+            String content = claudeResponse.content.get(0).text;
+            return ReadingPrompt.parse(content, possibleReadings);
         } catch (Exception e) {
             // Fall back to default on any error
         }
@@ -169,7 +224,37 @@ public class ClaudeClient implements LlmClient {
         return possibleReadings.get(0);
     }
 
-    private record ClaudeRequest(String model, int max_tokens, String system, List<Message> messages) {
+    /**
+     * @return The piece of the answer in a line of the streamed response, or null if there is none
+     */
+    private static String parseChunk(String line) {
+        if (!line.startsWith("data:")) {
+            return null;
+        }
+        try {
+            Event event = LlmTransport.GSON.fromJson(line.substring("data:".length()), Event.class);
+            return "content_block_delta".equals(event.type) ? event.delta.text : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the LLM response to extract the readings of a batch.
+     */
+    private List<String> parseBatchResponse(String response, List<ReadingRequest> requests) {
+        String content = "";
+        try {
+            ClaudeResponse claudeResponse = LlmTransport.GSON.fromJson(response, ClaudeResponse.class);
+            content = claudeResponse.content.get(0).text.trim();
+        } catch (Exception e) {
+            // Fall back to default on any error
+        }
+        return BatchPrompt.parse(content, requests);
+    }
+
+    private record ClaudeRequest(String model, int max_tokens, String system, List<Message> messages,
+                                 Boolean stream) {
     }
 
     private record Message(String role, String content) {
@@ -181,6 +266,24 @@ public class ClaudeClient implements LlmClient {
     private record Content(String text) {
     }
 
+    private record Event(String type, Content delta) {
+    }
+
+    /**
+     * @return The maximum number of tokens generated for the answer of the given number of words
+     */
+    private int getMaxTokens(int words) {
+        Integer tokens = getConfigValue(config.models.get(model), m -> m.maxAnswerTokens, config.maxAnswerTokens);
+        return tokens != null ? tokens * words : DEFAULT_MAX_TOKENS;
+    }
+
+    /**
+     * @return Whether the answer for a word is streamed, so that it is read only until the reading is decided
+     */
+    private boolean isStreaming() {
+        return Boolean.TRUE.equals(getConfigValue(config.models.get(model), m -> m.stream, config.stream));
+    }
+
     private static <T> T getConfigValue(LlmConfig.ModelConfig modelConfig, java.util.function.Function<LlmConfig.ModelConfig, T> getter, T defaultValue) {
         return modelConfig != null && getter.apply(modelConfig) != null ? getter.apply(modelConfig) : defaultValue;
     }
@@ -23,16 +23,15 @@
  */
 package com.iciao.kanada.llm;
 
-import com.google.gson.Gson;
-
 import java.io.IOException;
-import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
-import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Client for interacting with LM Studio API to get context-aware readings for kanji.
@@ -43,7 +42,7 @@ import java.util.List;
 public class LMStudioClient implements LlmClient {
     private final String apiUrl;
     private final String model;
-    private final HttpClient httpClient;
+    private final LlmTransport transport;
     private final LlmConfig.LMStudioConfig config;
 
     /**
@@ -62,15 +61,15 @@ public class LMStudioClient implements LlmClient {
     public LMStudioClient(String apiUrl, String model) {
         this.apiUrl = apiUrl;
         this.model = model;
-        this.httpClient = HttpClient.newBuilder()
-                .version(HttpClient.Version.HTTP_1_1)  // Need to force HTTP/1.1
-                .connectTimeout(Duration.ofSeconds(30))
-                .build();
         try {
             this.config = LlmConfig.getInstance().getLMStudio();
         } catch (Exception e) {
             throw new RuntimeException("Failed to load LM Studio configuration", e);
         }
+        LlmConfig.ModelConfig modelConfig = config.models.get(model);
+        this.transport = new LlmTransport("lmstudio", model, HttpClient.Version.HTTP_1_1,  // Need to force HTTP/1.1
+                Duration.ofSeconds(30), config.requestTimeout, config.maxConcurrentRequests,
+                LlmConfig.RateLimits.combine(config.rateLimits, modelConfig != null ? modelConfig.rateLimits : null));
     }
 
     /**
@@ -81,12 +80,11 @@ public class LMStudioClient implements LlmClient {
     @Override
     public boolean testConnection() {
         try {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(apiUrl + "/models"))
+            HttpRequest request = transport.newRequest(apiUrl + "/models")
                     .header("Content-Type", "application/json")
                     .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = transport.send(request);
             return response.statusCode() == 200;
         } catch (Exception e) {
             return false;
@@ -120,6 +118,69 @@ public class LMStudioClient implements LlmClient {
             return possibleReadings.isEmpty() ? "" : possibleReadings.get(0);
         }
 
+        HttpRequest request = createReadingRequest(kanji, possibleReadings, context);
+        if (isStreaming()) {
+            return transport.stream(request,
+                    lines -> StreamingAnswer.read(lines, LMStudioClient::parseChunk, possibleReadings));
+        }
+        String response = generateCompletion(request);
+        return parseResponse(response, possibleReadings);
+    }
+
+    /**
+     * Select the most appropriate readings for several kanji words in a single request.
+     *
+     * @param requests The words with their possible readings and contexts
+     * @return The selected readings in the order of the requests
+     * @throws IOException          If an I/O error occurs
+     * @throws InterruptedException If the operation is interrupted
+     */
+    @Override
+    public List<String> selectBestReadings(List<ReadingRequest> requests)
+            throws IOException, InterruptedException {
+        if (requests.size() <= 1) {
+            return LlmClient.super.selectBestReadings(requests);
+        }
+
+        LlmConfig.ModelConfig modelConfig = config.models.get(model);
+        String systemMessage = getConfigValue(modelConfig, m -> m.batchSystemPrompt, config.batchSystemPrompt);
+        String template = getConfigValue(modelConfig, m -> m.batchUserPromptTemplate, config.batchUserPromptTemplate);
+
+        String response = generateCompletion(createRequest(systemMessage, BatchPrompt.build(template, requests),
+                getMaxTokens(requests.size()), getResponseFormat(ReadingPrompt.batchAnswerSchema()), false));
+        return parseBatchResponse(response, requests);
+    }
+
+    /**
+     * Select the most appropriate reading for a kanji word with an asynchronous request.
+     *
+     * @param kanji            The kanji word to get readings for
+     * @param possibleReadings List of possible readings
+     * @param context          The surrounding text for context
+     * @return A future of the selected reading
+     */
+    @Override
+    public CompletableFuture<String> selectBestReadingAsync(String kanji, List<String> possibleReadings, String context) {
+        if (possibleReadings.size() <= 1) {
+            return CompletableFuture.completedFuture(possibleReadings.isEmpty() ? "" : possibleReadings.get(0));
+        }
+
+        HttpRequest request = createReadingRequest(kanji, possibleReadings, context);
+        if (isStreaming()) {
+            return transport.streamAsync(request,
+                    lines -> StreamingAnswer.read(lines, LMStudioClient::parseChunk, possibleReadings));
+        }
+        return transport.sendAsync(request)
+                .thenApply(response -> {
+                    try {
+                        return parseResponse(checkResponse(response), possibleReadings);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    private HttpRequest createReadingRequest(String kanji, List<String> possibleReadings, String context) {
         LlmConfig.ModelConfig modelConfig = config.models.get(model);
         String systemMessage = getConfigValue(modelConfig, m -> m.systemPrompt, config.systemPrompt);
         String template = getConfigValue(modelConfig, m -> m.userPromptTemplate, config.userPromptTemplate);
@@ -127,36 +188,41 @@ public class LMStudioClient implements LlmClient {
         String userMessage = template
                 .replace("{kanji}", kanji)
                 .replace("{context}", context.replace("\n", ""))
-                .replace("{readings}", String.join(" / ", possibleReadings));
+                .replace("{readings}", ReadingPrompt.numberReadings(possibleReadings));
 
-        String response = generateCompletion(systemMessage, userMessage);
-        return parseResponse(response, possibleReadings);
+        return createRequest(systemMessage, userMessage, getMaxTokens(1),
+                getResponseFormat(ReadingPrompt.answerSchema(possibleReadings.size())), isStreaming());
     }
 
     /**
      * Sends a request to the LM Studio API and gets the completion.
      */
-    private String generateCompletion(String systemMessage, String userMessage) throws IOException, InterruptedException {
-        Gson gson = new Gson();
+    private String generateCompletion(HttpRequest httpRequest) throws IOException, InterruptedException {
+        return checkResponse(transport.send(httpRequest));
+    }
 
+    private HttpRequest createRequest(String systemMessage, String userMessage, Integer maxTokens,
+                                      Map<String, Object> responseFormat, boolean stream) {
         LMStudioRequest request = new LMStudioRequest(
                 model,
                 List.of(
                         new Message("system", systemMessage),
                         new Message("user", userMessage)
-                )
+                ),
+                maxTokens,
+                responseFormat,
+                stream ? Boolean.TRUE : null
         );
 
-        String requestBody = gson.toJson(request);
+        String requestBody = LlmTransport.GSON.toJson(request);
 
-        HttpRequest httpRequest = HttpRequest.newBuilder()
-                .uri(URI.create(apiUrl + "/chat/completions"))
+        return transport.newRequest(apiUrl + "/chat/completions")
                 .header("Content-Type", "application/json")
                 .POST(HttpRequest.BodyPublishers.ofString(requestBody))
                 .build();
+    }
 
-        HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-
+    private static String checkResponse(HttpResponse<String> response) throws IOException {
         if (response.statusCode() != 200) {
             throw new IOException("API request failed with status code: " + response.statusCode() + ", body: " + response.body());
         }
@@ -169,19 +235,9 @@ public class LMStudioClient implements LlmClient {
      */
     private String parseResponse(String response, List<String> possibleReadings) {
         try {
-            LMStudioResponse lmStudioResponse = new Gson().fromJson(response, LMStudioResponse.class);
-            String content = lmStudioResponse.choices.get(0).message.content.trim();
-
-            // Check longer readings first to avoid partial matches
-            List<String> sortedReadings = possibleReadings.stream()
-                    .sorted(Comparator.comparing(String::length).reversed())
-                    .toList();
-
-            for (String reading : sortedReadings) {
-                if (content.contains(reading)) {
-                    return reading;
-                }
-            }
+            LMStudioResponse lmStudioResponse = LlmTransport.GSON.fromJson(response, LMStudioResponse.class);
+            String content = lmStudioResponse.choices.get(0).message.content;
+            return ReadingPrompt.parse(content, possibleReadings);
         } catch (Exception e) {
             // Fall back to default on any error
         }
@@ -189,7 +245,37 @@ public class LMStudioClient implements LlmClient {
         return possibleReadings.get(0);
     }
 
-    private record LMStudioRequest(String model, List<Message> messages) {
+    /**
+     * @return The piece of the answer in a line of the streamed response, or null if there is none
+     */
+    private static String parseChunk(String line) {
+        if (!line.startsWith("data:") || line.endsWith("[DONE]")) {
+            return null;
+        }
+        try {
+            Chunk chunk = LlmTransport.GSON.fromJson(line.substring("data:".length()), Chunk.class);
+            return chunk.choices.get(0).delta.content;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the LLM response to extract the readings of a batch.
+     */
+    private List<String> parseBatchResponse(String response, List<ReadingRequest> requests) {
+        String content = "";
+        try {
+            LMStudioResponse lmStudioResponse = LlmTransport.GSON.fromJson(response, LMStudioResponse.class);
+            content = lmStudioResponse.choices.get(0).message.content.trim();
+        } catch (Exception e) {
+            // Fall back to default on any error
+        }
+        return BatchPrompt.parse(content, requests);
+    }
+
+    private record LMStudioRequest(String model, List<Message> messages, Integer max_tokens,
+                                 Map<String, Object> response_format, Boolean stream) {
     }
 
     private record Message(String role, String content) {
@@ -201,6 +287,35 @@ public class LMStudioClient implements LlmClient {
     private record Choice(Message message) {
     }
 
+    private record Chunk(List<ChunkChoice> choices) {
+    }
+
+    private record ChunkChoice(Message delta) {
+    }
+
+    /**
+     * @return The maximum number of tokens generated for the answer of the given number of words, or null
+     */
+    private Integer getMaxTokens(int words) {
+        Integer tokens = getConfigValue(config.models.get(model), m -> m.maxAnswerTokens, config.maxAnswerTokens);
+        return tokens != null ? tokens * words : null;
+    }
+
+    /**
+     * @return The response format constraining the answer to the schema, or null if not enabled
+     */
+    private Map<String, Object> getResponseFormat(Map<String, Object> schema) {
+        Boolean structured = getConfigValue(config.models.get(model), m -> m.structuredOutput, config.structuredOutput);
+        return Boolean.TRUE.equals(structured) ? ReadingPrompt.responseFormat(schema) : null;
+    }
+
+    /**
+     * @return Whether the answer for a word is streamed, so that it is read only until the reading is decided
+     */
+    private boolean isStreaming() {
+        return Boolean.TRUE.equals(getConfigValue(config.models.get(model), m -> m.stream, config.stream));
+    }
+
     private static <T> T getConfigValue(LlmConfig.ModelConfig modelConfig, java.util.function.Function<LlmConfig.ModelConfig, T> getter, T defaultValue) {
         return modelConfig != null && getter.apply(modelConfig) != null ? getter.apply(modelConfig) : defaultValue;
     }
@@ -24,7 +24,9 @@
 package com.iciao.kanada.llm;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interface for LLM clients that can determine the best reading for kanji based on context.
@@ -59,4 +61,42 @@ public interface LlmClient {
      */
     String selectBestReading(String kanji, List<String> possibleReadings, String context)
             throws IOException, InterruptedException;
+
+    /**
+     * Select the most appropriate readings for several kanji words, in as few requests as possible.<br>
+     * The default implementation sends one request for each word.
+     *
+     * @param requests The words with their possible readings and contexts
+     * @return The selected readings in the order of the requests
+     * @throws IOException          If an I/O error occurs
+     * @throws InterruptedException If the operation is interrupted
+     */
+    default List<String> selectBestReadings(List<ReadingRequest> requests)
+            throws IOException, InterruptedException {
+        List<String> readings = new ArrayList<>(requests.size());
+        for (ReadingRequest request : requests) {
+            readings.add(selectBestReading(request.kanji(), request.possibleReadings(), request.context()));
+        }
+        return readings;
+    }
+
+    /**
+     * Select the most appropriate reading for a kanji word without waiting for the answer.<br>
+     * The default implementation selects the reading on the calling thread and returns a completed future.
+     *
+     * @param kanji            The kanji word to get readings for
+     * @param possibleReadings List of possible readings
+     * @param context          The surrounding text for context
+     * @return A future of the selected reading, completed exceptionally if the reading cannot be selected
+     */
+    default CompletableFuture<String> selectBestReadingAsync(String kanji, List<String> possibleReadings, String context) {
+        try {
+            return CompletableFuture.completedFuture(selectBestReading(kanji, possibleReadings, context));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
\ No newline at end of file
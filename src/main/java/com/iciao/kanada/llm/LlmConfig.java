@@ -90,6 +90,22 @@ public class LlmConfig {
             if (localConfig.openai.systemPrompt != null) config.openai.systemPrompt = localConfig.openai.systemPrompt;
             if (localConfig.openai.userPromptTemplate != null)
                 config.openai.userPromptTemplate = localConfig.openai.userPromptTemplate;
+            if (localConfig.openai.batchSystemPrompt != null)
+                config.openai.batchSystemPrompt = localConfig.openai.batchSystemPrompt;
+            if (localConfig.openai.batchUserPromptTemplate != null)
+                config.openai.batchUserPromptTemplate = localConfig.openai.batchUserPromptTemplate;
+            if (localConfig.openai.requestTimeout != null)
+                config.openai.requestTimeout = localConfig.openai.requestTimeout;
+            if (localConfig.openai.maxConcurrentRequests != null)
+                config.openai.maxConcurrentRequests = localConfig.openai.maxConcurrentRequests;
+            if (localConfig.openai.rateLimits != null)
+                config.openai.rateLimits = localConfig.openai.rateLimits;
+            if (localConfig.openai.maxAnswerTokens != null)
+                config.openai.maxAnswerTokens = localConfig.openai.maxAnswerTokens;
+            if (localConfig.openai.stream != null)
+                config.openai.stream = localConfig.openai.stream;
+            if (localConfig.openai.structuredOutput != null)
+                config.openai.structuredOutput = localConfig.openai.structuredOutput;
             if (localConfig.openai.models != null) config.openai.models.putAll(localConfig.openai.models);
         }
         if (localConfig.ollama != null) {
@@ -97,6 +113,20 @@ public class LlmConfig {
             if (localConfig.ollama.apiUrl != null) config.ollama.apiUrl = localConfig.ollama.apiUrl;
             if (localConfig.ollama.promptTemplate != null)
                 config.ollama.promptTemplate = localConfig.ollama.promptTemplate;
+            if (localConfig.ollama.batchPromptTemplate != null)
+                config.ollama.batchPromptTemplate = localConfig.ollama.batchPromptTemplate;
+            if (localConfig.ollama.requestTimeout != null)
+                config.ollama.requestTimeout = localConfig.ollama.requestTimeout;
+            if (localConfig.ollama.maxConcurrentRequests != null)
+                config.ollama.maxConcurrentRequests = localConfig.ollama.maxConcurrentRequests;
+            if (localConfig.ollama.rateLimits != null)
+                config.ollama.rateLimits = localConfig.ollama.rateLimits;
+            if (localConfig.ollama.maxAnswerTokens != null)
+                config.ollama.maxAnswerTokens = localConfig.ollama.maxAnswerTokens;
+            if (localConfig.ollama.stream != null)
+                config.ollama.stream = localConfig.ollama.stream;
+            if (localConfig.ollama.structuredOutput != null)
+                config.ollama.structuredOutput = localConfig.ollama.structuredOutput;
             if (localConfig.ollama.models != null) config.ollama.models.putAll(localConfig.ollama.models);
         }
         if (localConfig.claude != null) {
@@ -105,6 +135,20 @@ public class LlmConfig {
             if (localConfig.claude.systemPrompt != null) config.claude.systemPrompt = localConfig.claude.systemPrompt;
             if (localConfig.claude.userPromptTemplate != null)
                 config.claude.userPromptTemplate = localConfig.claude.userPromptTemplate;
+            if (localConfig.claude.batchSystemPrompt != null)
+                config.claude.batchSystemPrompt = localConfig.claude.batchSystemPrompt;
+            if (localConfig.claude.batchUserPromptTemplate != null)
+                config.claude.batchUserPromptTemplate = localConfig.claude.batchUserPromptTemplate;
+            if (localConfig.claude.requestTimeout != null)
+                config.claude.requestTimeout = localConfig.claude.requestTimeout;
+            if (localConfig.claude.maxConcurrentRequests != null)
+                config.claude.maxConcurrentRequests = localConfig.claude.maxConcurrentRequests;
+            if (localConfig.claude.rateLimits != null)
+                config.claude.rateLimits = localConfig.claude.rateLimits;
+            if (localConfig.claude.maxAnswerTokens != null)
+                config.claude.maxAnswerTokens = localConfig.claude.maxAnswerTokens;
+            if (localConfig.claude.stream != null)
+                config.claude.stream = localConfig.claude.stream;
             if (localConfig.claude.models != null) config.claude.models.putAll(localConfig.claude.models);
         }
         if (localConfig.lmstudio != null) {
@@ -115,6 +159,22 @@ public class LlmConfig {
                 config.lmstudio.systemPrompt = localConfig.lmstudio.systemPrompt;
             if (localConfig.lmstudio.userPromptTemplate != null)
                 config.lmstudio.userPromptTemplate = localConfig.lmstudio.userPromptTemplate;
+            if (localConfig.lmstudio.batchSystemPrompt != null)
+                config.lmstudio.batchSystemPrompt = localConfig.lmstudio.batchSystemPrompt;
+            if (localConfig.lmstudio.batchUserPromptTemplate != null)
+                config.lmstudio.batchUserPromptTemplate = localConfig.lmstudio.batchUserPromptTemplate;
+            if (localConfig.lmstudio.requestTimeout != null)
+                config.lmstudio.requestTimeout = localConfig.lmstudio.requestTimeout;
+            if (localConfig.lmstudio.maxConcurrentRequests != null)
+                config.lmstudio.maxConcurrentRequests = localConfig.lmstudio.maxConcurrentRequests;
+            if (localConfig.lmstudio.rateLimits != null)
+                config.lmstudio.rateLimits = localConfig.lmstudio.rateLimits;
+            if (localConfig.lmstudio.maxAnswerTokens != null)
+                config.lmstudio.maxAnswerTokens = localConfig.lmstudio.maxAnswerTokens;
+            if (localConfig.lmstudio.stream != null)
+                config.lmstudio.stream = localConfig.lmstudio.stream;
+            if (localConfig.lmstudio.structuredOutput != null)
+                config.lmstudio.structuredOutput = localConfig.lmstudio.structuredOutput;
             if (localConfig.lmstudio.models != null) config.lmstudio.models.putAll(localConfig.lmstudio.models);
         }
     }
@@ -154,6 +214,18 @@ public class LlmConfig {
         public String apiUrl;
         public String systemPrompt;
         public String userPromptTemplate;
+        public String batchSystemPrompt;
+        public String batchUserPromptTemplate;
+        // Deadline of each request in seconds
+        public Integer requestTimeout;
+        public Integer maxConcurrentRequests;
+        public RateLimits rateLimits;
+        // Maximum number of tokens generated for the answer of each word
+        public Integer maxAnswerTokens;
+        // Whether the answer for a word is streamed and read only until the reading is decided
+        public Boolean stream;
+        // Whether the answer is constrained to a JSON schema
+        public Boolean structuredOutput;
         public Map<String, ModelConfig> models = new HashMap<>();
     }
 
@@ -161,6 +233,17 @@ public class LlmConfig {
         public String defaultModel;
         public String apiUrl;
         public String promptTemplate;
+        public String batchPromptTemplate;
+        // Deadline of each request in seconds
+        public Integer requestTimeout;
+        public Integer maxConcurrentRequests;
+        public RateLimits rateLimits;
+        // Maximum number of tokens generated for the answer of each word
+        public Integer maxAnswerTokens;
+        // Whether the answer for a word is streamed and read only until the reading is decided
+        public Boolean stream;
+        // Whether the answer is constrained to a JSON schema
+        public Boolean structuredOutput;
         public Map<String, ModelConfig> models = new HashMap<>();
     }
 
@@ -169,6 +252,16 @@ public class LlmConfig {
         public String apiUrl;
         public String systemPrompt;
         public String userPromptTemplate;
+        public String batchSystemPrompt;
+        public String batchUserPromptTemplate;
+        // Deadline of each request in seconds
+        public Integer requestTimeout;
+        public Integer maxConcurrentRequests;
+        public RateLimits rateLimits;
+        // Maximum number of tokens generated for the answer of each word
+        public Integer maxAnswerTokens;
+        // Whether the answer for a word is streamed and read only until the reading is decided
+        public Boolean stream;
         public Map<String, ModelConfig> models = new HashMap<>();
     }
 
@@ -177,6 +270,18 @@ public class LlmConfig {
         public String apiUrl;
         public String systemPrompt;
         public String userPromptTemplate;
+        public String batchSystemPrompt;
+        public String batchUserPromptTemplate;
+        // Deadline of each request in seconds
+        public Integer requestTimeout;
+        public Integer maxConcurrentRequests;
+        public RateLimits rateLimits;
+        // Maximum number of tokens generated for the answer of each word
+        public Integer maxAnswerTokens;
+        // Whether the answer for a word is streamed and read only until the reading is decided
+        public Boolean stream;
+        // Whether the answer is constrained to a JSON schema
+        public Boolean structuredOutput;
         public Map<String, ModelConfig> models = new HashMap<>();
     }
 
@@ -191,5 +296,37 @@ public class LlmConfig {
         public String systemPrompt;
         public String userPromptTemplate;
         public String promptTemplate;
+        public String batchSystemPrompt;
+        public String batchUserPromptTemplate;
+        public String batchPromptTemplate;
+        public RateLimits rateLimits;
+        public Integer maxAnswerTokens;
+        public Boolean structuredOutput;
+        public Boolean stream;
+    }
+
+    /**
+     * Limits of the requests sent to a provider, which can be set for each model as well.<br>
+     * The limits not set for a model are taken from the provider.
+     */
+    public static class RateLimits {
+        public Double requestsPerSecond;
+        public Integer tokensPerMinute;
+        // Maximum wait in seconds for a request to be sent within the limits
+        public Integer maxWait;
+        // Maximum number of tokens used by a client, such as during a run of the command
+        public Long tokenBudget;
+
+        static RateLimits combine(RateLimits provider, RateLimits model) {
+            if (model == null || provider == null) {
+                return model != null ? model : provider;
+            }
+            RateLimits limits = new RateLimits();
+            limits.requestsPerSecond = model.requestsPerSecond != null ? model.requestsPerSecond : provider.requestsPerSecond;
+            limits.tokensPerMinute = model.tokensPerMinute != null ? model.tokensPerMinute : provider.tokensPerMinute;
+            limits.maxWait = model.maxWait != null ? model.maxWait : provider.maxWait;
+            limits.tokenBudget = model.tokenBudget != null ? model.tokenBudget : provider.tokenBudget;
+            return limits;
+        }
     }
 }
\ No newline at end of file
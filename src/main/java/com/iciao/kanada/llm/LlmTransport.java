@@ -0,0 +1,280 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada.llm;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * HTTP transport shared by the LLM clients.<br>
+ * The clients with the same HTTP version and connect timeout share one {@link HttpClient}, so that the
+ * connections are kept alive and reused, and HTTP/2 streams are multiplexed over them where the server
+ * supports it. Every request has a deadline, and the requests in flight to each provider are limited by a
+ * semaphore shared by all the clients of the provider.<br>
+ * The requests per second and the tokens per minute are limited for each provider and model, and a request
+ * that exceeds a limit waits for no longer than the maximum wait. The tokens are estimated at one for every
+ * three bytes of the request body, which is about right for Japanese and generous for English. When the token
+ * budget of the client is spent, the requests fail without being sent, so that the dictionary readings are used.<br>
+ * A streamed response is read line by line as it arrives, and the request is cancelled as soon as the reader
+ * has what it needs.
+ *
+ * @author Masahiko Sato
+ */
+final class LlmTransport {
+    private static final Logger LOGGER = Logger.getLogger(LlmTransport.class.getName());
+    static final Gson GSON = new Gson();
+
+    static final int DEFAULT_REQUEST_TIMEOUT = 60;
+    static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+    static final int DEFAULT_MAX_WAIT = 60;
+
+    private static final Map<String, HttpClient> HTTP_CLIENTS = new ConcurrentHashMap<>();
+    private static final Map<String, Semaphore> PERMITS = new ConcurrentHashMap<>();
+    private static final Map<String, RateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    /**
+     * Thrown when a request is not sent because of a limit of the client, rather than a failure of the provider.
+     */
+    static final class LimitExceededException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        LimitExceededException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Reads the lines of a streamed response, and may return before the end of the response.
+     */
+    @FunctionalInterface
+    interface LineReader<T> {
+        T read(Stream<String> lines) throws IOException;
+    }
+
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+    private final Semaphore permits;
+    // Limiter shared by the clients of the same provider and model, or null if there are no rate limits
+    private final RateLimiter limiter;
+    private final long maxWaitNanos;
+    private final long tokenBudget;
+    private final AtomicLong tokensSpent = new AtomicLong();
+    private final AtomicBoolean isBudgetSpent = new AtomicBoolean();
+
+    /**
+     * @param provider              The name of the provider whose requests share the concurrency limit
+     * @param model                 The model whose requests share the rate limits with the provider name
+     * @param requestTimeout        The deadline of each request in seconds, or null for the default
+     * @param maxConcurrentRequests The maximum number of requests in flight to the provider, or null for the
+     *                              default. The limit of the first client of the provider is used.
+     * @param rateLimits            The rate limits and the token budget, or null for none
+     */
+    LlmTransport(String provider, String model, HttpClient.Version version, Duration connectTimeout,
+                 Integer requestTimeout, Integer maxConcurrentRequests, LlmConfig.RateLimits rateLimits) {
+        httpClient = HTTP_CLIENTS.computeIfAbsent(version + "/" + connectTimeout, key -> HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(connectTimeout)
+                .build());
+        this.requestTimeout = Duration.ofSeconds(requestTimeout != null && requestTimeout > 0
+                ? requestTimeout : DEFAULT_REQUEST_TIMEOUT);
+        int maxRequests = maxConcurrentRequests != null && maxConcurrentRequests > 0
+                ? maxConcurrentRequests : DEFAULT_MAX_CONCURRENT_REQUESTS;
+        permits = PERMITS.computeIfAbsent(provider, key -> new Semaphore(maxRequests));
+
+        LlmConfig.RateLimits limits = rateLimits != null ? rateLimits : new LlmConfig.RateLimits();
+        double requestsPerSecond = limits.requestsPerSecond != null ? limits.requestsPerSecond : 0;
+        double tokensPerMinute = limits.tokensPerMinute != null ? limits.tokensPerMinute : 0;
+        limiter = requestsPerSecond > 0 || tokensPerMinute > 0
+                ? LIMITERS.computeIfAbsent(provider + "/" + model, key -> new RateLimiter(requestsPerSecond, tokensPerMinute))
+                : null;
+        maxWaitNanos = TimeUnit.SECONDS.toNanos(limits.maxWait != null && limits.maxWait >= 0
+                ? limits.maxWait : DEFAULT_MAX_WAIT);
+        tokenBudget = limits.tokenBudget != null ? limits.tokenBudget : 0;
+    }
+
+    /**
+     * @return The number of tokens estimated for the requests sent so far
+     */
+    long getTokensSpent() {
+        return tokensSpent.get();
+    }
+
+    private static int estimateTokens(HttpRequest request) {
+        long length = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(0L);
+        return (int) Math.min(Integer.MAX_VALUE, (Math.max(0, length) + 2) / 3);
+    }
+
+    /**
+     * Wait until the request is within the budget, the rate limits and the concurrency limit.<br>
+     * A permit is held on return, which must be released after the request.
+     *
+     * @throws IOException If the budget is spent or the request cannot be sent within the maximum wait
+     */
+    private void admit(HttpRequest request) throws IOException, InterruptedException {
+        int tokens = estimateTokens(request);
+        // The tokens are reserved first so that concurrent requests cannot overrun the budget, and given
+        // back if the request is not sent.
+        if (tokenBudget > 0 && tokensSpent.addAndGet(tokens) > tokenBudget) {
+            tokensSpent.addAndGet(-tokens);
+            if (isBudgetSpent.compareAndSet(false, true)) {
+                LOGGER.warning("The token budget of " + tokenBudget + " is spent. The dictionary readings are used.");
+            }
+            throw new LimitExceededException("Token budget of the LLM is spent");
+        }
+        boolean admitted = false;
+        try {
+            if (limiter != null) {
+                limiter.acquire(tokens, maxWaitNanos);
+            }
+            if (!permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                throw new LimitExceededException("Too many requests in flight to the LLM");
+            }
+            admitted = true;
+        } finally {
+            if (!admitted && tokenBudget > 0) {
+                tokensSpent.addAndGet(-tokens);
+            }
+        }
+    }
+
+    /**
+     * @return A request builder for the URL with the request deadline set
+     */
+    HttpRequest.Builder newRequest(String url) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(requestTimeout);
+    }
+
+    /**
+     * Send a request, waiting first if the provider has too many requests in flight or a rate limit is reached.
+     */
+    HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        admit(request);
+        try {
+            return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Send a request without waiting for the response.<br>
+     * The calling thread waits if the provider has too many requests in flight or a rate limit is reached.
+     */
+    CompletableFuture<HttpResponse<String>> sendAsync(HttpRequest request) {
+        try {
+            admit(request);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        try {
+            return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((response, e) -> permits.release());
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Send a request and read the lines of the response as they arrive.<br>
+     * The rest of the response is not received once the reader returns, and the request is cancelled.
+     *
+     * @throws IOException If the request fails or the response has an error status
+     */
+    <T> T stream(HttpRequest request, LineReader<T> reader) throws IOException, InterruptedException {
+        admit(request);
+        try {
+            return read(httpClient.send(request, HttpResponse.BodyHandlers.ofLines()), reader);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Send a request without waiting for the response, and read the lines of the response as they arrive.<br>
+     * The calling thread waits if the provider has too many requests in flight or a rate limit is reached.
+     *
+     * @see #stream(HttpRequest, LineReader)
+     */
+    <T> CompletableFuture<T> streamAsync(HttpRequest request, LineReader<T> reader) {
+        try {
+            admit(request);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        try {
+            return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofLines())
+                    .thenApply(response -> {
+                        try {
+                            return read(response, reader);
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    })
+                    .whenComplete((result, e) -> permits.release());
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private static <T> T read(HttpResponse<Stream<String>> response, LineReader<T> reader) throws IOException {
+        // Closing the lines before the end of the response cancels the request.
+        try (Stream<String> lines = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new IOException("API request failed with status code: " + response.statusCode()
+                        + ", body: " + lines.collect(Collectors.joining("\n")));
+            }
+            return reader.read(lines);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
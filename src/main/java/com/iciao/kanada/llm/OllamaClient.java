@@ -23,16 +23,15 @@
  */
 package com.iciao.kanada.llm;
 
-import com.google.gson.Gson;
-
 import java.io.IOException;
-import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
-import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Client for interacting with Ollama API to get context-aware readings for kanji.
@@ -42,7 +41,7 @@ import java.util.List;
 public class OllamaClient implements LlmClient {
     private final String apiUrl;
     private final String model;
-    private final HttpClient httpClient;
+    private final LlmTransport transport;
     private final LlmConfig.OllamaConfig config;
 
     /**
@@ -61,14 +60,15 @@ public class OllamaClient implements LlmClient {
     public OllamaClient(String apiUrl, String model) {
         this.apiUrl = apiUrl;
         this.model = model;
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
         try {
             this.config = LlmConfig.getInstance().getOllama();
         } catch (Exception e) {
             throw new RuntimeException("Failed to load Ollama configuration", e);
         }
+        LlmConfig.ModelConfig modelConfig = config.models.get(model);
+        this.transport = new LlmTransport("ollama", model, HttpClient.Version.HTTP_2,
+                Duration.ofSeconds(10), config.requestTimeout, config.maxConcurrentRequests,
+                LlmConfig.RateLimits.combine(config.rateLimits, modelConfig != null ? modelConfig.rateLimits : null));
     }
 
     /**
@@ -78,13 +78,12 @@ public class OllamaClient implements LlmClient {
      */
     public boolean testConnection() {
         try {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(apiUrl + "/api/tags"))
+            HttpRequest request = transport.newRequest(apiUrl + "/api/tags")
                     .header("Content-Type", "application/json")
                     .GET()
                     .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = transport.send(request);
             return response.statusCode() == 200;
         } catch (Exception e) {
             return false;
@@ -116,16 +115,78 @@ public class OllamaClient implements LlmClient {
             return "";
         }
 
+        HttpRequest request = createReadingRequest(kanji, possibleReadings, context);
+        if (isStreaming()) {
+            return transport.stream(request,
+                    lines -> StreamingAnswer.read(lines, OllamaClient::parseChunk, possibleReadings));
+        }
+        String response = generateCompletion(request);
+        return parseResponse(response, possibleReadings);
+    }
+
+    /**
+     * Select the most appropriate readings for several kanji words in a single request.
+     *
+     * @param requests The words with their possible readings and contexts
+     * @return The selected readings in the order of the requests
+     * @throws IOException          If an I/O error occurs
+     * @throws InterruptedException If the operation is interrupted
+     */
+    @Override
+    public List<String> selectBestReadings(List<ReadingRequest> requests)
+            throws IOException, InterruptedException {
+        if (requests.size() <= 1) {
+            return LlmClient.super.selectBestReadings(requests);
+        }
+
+        LlmConfig.ModelConfig modelConfig = config.models.get(model);
+        String template = getConfigValue(modelConfig, m -> m.batchPromptTemplate, config.batchPromptTemplate);
+
+        String response = generateCompletion(createRequest(BatchPrompt.build(template, requests),
+                getMaxTokens(requests.size()), getFormat(ReadingPrompt.batchAnswerSchema()), false));
+        return parseBatchResponse(response, requests);
+    }
+
+    /**
+     * Select the most appropriate reading for a kanji word with an asynchronous request.
+     *
+     * @param kanji            The kanji word to get readings for
+     * @param possibleReadings List of possible readings
+     * @param context          The surrounding text for context
+     * @return A future of the selected reading
+     */
+    @Override
+    public CompletableFuture<String> selectBestReadingAsync(String kanji, List<String> possibleReadings, String context) {
+        if (possibleReadings.isEmpty()) {
+            return CompletableFuture.completedFuture("");
+        }
+
+        HttpRequest request = createReadingRequest(kanji, possibleReadings, context);
+        if (isStreaming()) {
+            return transport.streamAsync(request,
+                    lines -> StreamingAnswer.read(lines, OllamaClient::parseChunk, possibleReadings));
+        }
+        return transport.sendAsync(request)
+                .thenApply(response -> {
+                    try {
+                        return parseResponse(checkResponse(response), possibleReadings);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    private HttpRequest createReadingRequest(String kanji, List<String> possibleReadings, String context) {
         LlmConfig.ModelConfig modelConfig = config.models.get(model);
         String template = getConfigValue(modelConfig, m -> m.promptTemplate, config.promptTemplate);
 
         String prompt = template
                 .replace("{kanji}", kanji)
                 .replace("{context}", context.replace("\n", ""))
-                .replace("{readings}", String.join(" / ", possibleReadings));
+                .replace("{readings}", ReadingPrompt.numberReadings(possibleReadings));
 
-        String response = generateCompletion(prompt);
-        return parseResponse(response, possibleReadings);
+        return createRequest(prompt, getMaxTokens(1), getFormat(ReadingPrompt.answerSchema(possibleReadings.size())),
+                isStreaming());
     }
 
     /**
@@ -133,20 +194,22 @@ public class OllamaClient implements LlmClient {
      * <p>
      * If the specified model does not exist, throws an IOException with a helpful message.
      */
-    private String generateCompletion(String prompt) throws IOException, InterruptedException {
-        Gson gson = new Gson();
+    private String generateCompletion(HttpRequest httpRequest) throws IOException, InterruptedException {
+        return checkResponse(transport.send(httpRequest));
+    }
 
-        OllamaRequest request = new OllamaRequest(model, prompt, false);
-        String requestBody = gson.toJson(request);
+    private HttpRequest createRequest(String prompt, Integer maxTokens, Map<String, Object> format, boolean stream) {
+        Map<String, Object> options = maxTokens != null ? Map.of("num_predict", maxTokens) : null;
+        OllamaRequest request = new OllamaRequest(model, prompt, stream, format, options);
+        String requestBody = LlmTransport.GSON.toJson(request);
 
-        HttpRequest httpRequest = HttpRequest.newBuilder()
-                .uri(URI.create(apiUrl + "/api/generate"))
+        return transport.newRequest(apiUrl + "/api/generate")
                 .header("Content-Type", "application/json")
                 .POST(HttpRequest.BodyPublishers.ofString(requestBody))
                 .build();
+    }
 
-        HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-
+    private static String checkResponse(HttpResponse<String> response) throws IOException {
         if (response.statusCode() != 200) {
             throw new IOException("API request failed with status code: " + response.statusCode() + ", body: " + response.body());
         }
@@ -159,19 +222,9 @@ public class OllamaClient implements LlmClient {
      */
     private String parseResponse(String response, List<String> possibleReadings) {
         try {
-            OllamaResponse ollamaResponse = new Gson().fromJson(response, OllamaResponse.class);
-            String content = ollamaResponse.response.trim();
-
-            // Check longer readings first to avoid partial matches
-            List<String> sortedReadings = possibleReadings.stream()
-                    .sorted(Comparator.comparing(String::length).reversed())
-                    .toList();
-
-            for (String reading : sortedReadings) {
-                if (content.contains(reading)) {
-                    return reading;
-                }
-            }
+            OllamaResponse ollamaResponse = LlmTransport.GSON.fromJson(response, OllamaResponse.class);
+            String content = ollamaResponse.response;
+            return ReadingPrompt.parse(content, possibleReadings);
         } catch (Exception e) {
             // Fall back to default on any error
         }
@@ -179,12 +232,61 @@ public class OllamaClient implements LlmClient {
         return possibleReadings.get(0);
     }
 
-    private record OllamaRequest(String model, String prompt, boolean stream) {
+    /**
+     * @return The piece of the answer in a line of the streamed response, or null if there is none
+     */
+    private static String parseChunk(String line) {
+        try {
+            return LlmTransport.GSON.fromJson(line, OllamaResponse.class).response;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the LLM response to extract the readings of a batch.
+     */
+    private List<String> parseBatchResponse(String response, List<ReadingRequest> requests) {
+        String content = "";
+        try {
+            OllamaResponse ollamaResponse = LlmTransport.GSON.fromJson(response, OllamaResponse.class);
+            content = ollamaResponse.response.trim();
+        } catch (Exception e) {
+            // Fall back to default on any error
+        }
+        return BatchPrompt.parse(content, requests);
+    }
+
+    private record OllamaRequest(String model, String prompt, boolean stream, Map<String, Object> format,
+                                 Map<String, Object> options) {
     }
 
     private record OllamaResponse(String response) {
     }
 
+    /**
+     * @return The maximum number of tokens generated for the answer of the given number of words, or null
+     */
+    private Integer getMaxTokens(int words) {
+        Integer tokens = getConfigValue(config.models.get(model), m -> m.maxAnswerTokens, config.maxAnswerTokens);
+        return tokens != null ? tokens * words : null;
+    }
+
+    /**
+     * @return The JSON schema constraining the answer, or null if not enabled
+     */
+    private Map<String, Object> getFormat(Map<String, Object> schema) {
+        Boolean structured = getConfigValue(config.models.get(model), m -> m.structuredOutput, config.structuredOutput);
+        return Boolean.TRUE.equals(structured) ? schema : null;
+    }
+
+    /**
+     * @return Whether the answer for a word is streamed, so that it is read only until the reading is decided
+     */
+    private boolean isStreaming() {
+        return Boolean.TRUE.equals(getConfigValue(config.models.get(model), m -> m.stream, config.stream));
+    }
+
     private static <T> T getConfigValue(LlmConfig.ModelConfig modelConfig, java.util.function.Function<LlmConfig.ModelConfig, T> getter, T defaultValue) {
         return modelConfig != null && getter.apply(modelConfig) != null ? getter.apply(modelConfig) : defaultValue;
     }
@@ -0,0 +1,96 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada.llm;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token buckets limiting the requests per second and the tokens per minute sent to an LLM.<br>
+ * The buckets start full, so a burst of up to a second of requests and a minute of tokens passes at once.
+ * A request that does not fit waits for the buckets to refill, but no longer than the maximum wait.
+ *
+ * @author Masahiko Sato
+ */
+final class RateLimiter {
+    private final double requestsPerSecond;
+    private final double tokensPerMinute;
+    private final double requestCapacity;
+    private double requestCredit;
+    private double tokenCredit;
+    private long refilledAt = System.nanoTime();
+
+    /**
+     * @param requestsPerSecond The rate of requests, or 0 for no limit
+     * @param tokensPerMinute   The rate of tokens, or 0 for no limit
+     */
+    RateLimiter(double requestsPerSecond, double tokensPerMinute) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.tokensPerMinute = tokensPerMinute;
+        requestCapacity = Math.max(1, requestsPerSecond);
+        requestCredit = requestCapacity;
+        tokenCredit = tokensPerMinute;
+    }
+
+    /**
+     * Wait until a request with the given number of tokens can be sent.
+     *
+     * @throws IOException If the request cannot be sent within the maximum wait
+     */
+    void acquire(int tokens, long maxWaitNanos) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (true) {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                refill(now);
+                // A request larger than the bucket waits for a full bucket only.
+                double cost = Math.min(tokens, tokensPerMinute);
+                wait = Math.max(
+                        requestsPerSecond > 0 ? nanosUntil(1 - requestCredit, requestsPerSecond) : 0,
+                        tokensPerMinute > 0 ? nanosUntil(cost - tokenCredit, tokensPerMinute / 60) : 0);
+                if (wait <= 0) {
+                    requestCredit -= 1;
+                    tokenCredit -= cost;
+                    return;
+                }
+                if (now + wait - deadline > 0) {
+                    throw new LlmTransport.LimitExceededException("Rate limit of the LLM is exceeded");
+                }
+            }
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private void refill(long now) {
+        double seconds = (now - refilledAt) / 1e9;
+        refilledAt = now;
+        requestCredit = Math.min(requestCapacity, requestCredit + seconds * requestsPerSecond);
+        tokenCredit = Math.min(tokensPerMinute, tokenCredit + seconds * tokensPerMinute / 60);
+    }
+
+    private static long nanosUntil(double shortage, double ratePerSecond) {
+        return shortage <= 0 ? 0 : (long) Math.ceil(shortage / ratePerSecond * 1e9);
+    }
+}
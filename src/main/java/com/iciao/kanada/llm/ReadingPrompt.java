@@ -0,0 +1,136 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada.llm;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Build the options of an ambiguous word and parse the answer.<br>
+ * The readings are numbered in the prompt, and the model is asked for the number of the reading only,
+ * which takes a token or two to generate. An answer with the reading itself is accepted as well, and an
+ * answer that matches no option falls back to the first candidate.
+ *
+ * @author Masahiko Sato
+ */
+final class ReadingPrompt {
+    private static final Pattern THINKING = Pattern.compile("<think>.*?(</think>|$)", Pattern.DOTALL);
+    private static final Pattern NUMBER = Pattern.compile("\\d+");
+
+    private ReadingPrompt() {
+    }
+
+    /**
+     * @return The readings numbered from 1, e.g. "1) きょう / 2) こんにち"
+     */
+    static String numberReadings(List<String> possibleReadings) {
+        StringBuilder options = new StringBuilder();
+        for (int i = 0; i < possibleReadings.size(); i++) {
+            if (i > 0) {
+                options.append(" / ");
+            }
+            options.append(i + 1).append(") ").append(possibleReadings.get(i));
+        }
+        return options.toString();
+    }
+
+    /**
+     * Parse the answer into one of the readings.
+     */
+    static String parse(String content, List<String> possibleReadings) {
+        String answer = stripThinking(content);
+        Matcher matcher = NUMBER.matcher(answer);
+        return match(matcher.find() ? matcher.group() : answer, answer, possibleReadings);
+    }
+
+    /**
+     * @return The answer without the thinking of the model, including the thinking not finished yet
+     */
+    static String stripThinking(CharSequence content) {
+        return THINKING.matcher(content).replaceAll("").trim();
+    }
+
+    /**
+     * Match the number of a reading, or else the reading itself in the answer.
+     */
+    static String match(String number, String answer, List<String> possibleReadings) {
+        try {
+            int index = Integer.parseInt(number.trim());
+            if (index >= 1 && index <= possibleReadings.size()) {
+                return possibleReadings.get(index - 1);
+            }
+        } catch (NumberFormatException e) {
+            // Not a number
+        }
+        if (possibleReadings.contains(answer)) {
+            return answer;
+        }
+        // Check longer readings first to avoid partial matches
+        return possibleReadings.stream()
+                .sorted(Comparator.comparing(String::length).reversed())
+                .filter(answer::contains)
+                .findFirst()
+                .orElse(possibleReadings.get(0));
+    }
+
+    /**
+     * @return The JSON schema of the answer for one word, an object with the number of the reading
+     */
+    static Map<String, Object> answerSchema(int readingCount) {
+        List<Integer> numbers = new ArrayList<>();
+        for (int i = 1; i <= readingCount; i++) {
+            numbers.add(i);
+        }
+        return objectSchema("index", Map.of("type", "integer", "enum", numbers));
+    }
+
+    /**
+     * @return The JSON schema of the answer for a batch, an object with the numbers of the readings in order
+     */
+    static Map<String, Object> batchAnswerSchema() {
+        return objectSchema("indexes", Map.of("type", "array", "items", Map.of("type", "integer")));
+    }
+
+    private static Map<String, Object> objectSchema(String property, Map<String, Object> propertySchema) {
+        Map<String, Object> schema = new LinkedHashMap<>();
+        schema.put("type", "object");
+        schema.put("properties", Map.of(property, propertySchema));
+        schema.put("required", List.of(property));
+        schema.put("additionalProperties", false);
+        return schema;
+    }
+
+    /**
+     * @return The response format of the OpenAI compatible APIs for the given schema
+     */
+    static Map<String, Object> responseFormat(Map<String, Object> schema) {
+        return Map.of("type", "json_schema",
+                "json_schema", Map.of("name", "reading", "strict", true, "schema", schema));
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada.llm;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * LLM client that retries, hedges and short-circuits the requests of another client.<br>
+ * A failed request is retried after a random delay of up to the base delay doubled for each attempt. After
+ * a number of consecutive failures, the circuit opens and the requests fail at once, so that the dictionary
+ * readings are used without waiting for the provider. After a while, a single request is let through to probe
+ * the provider, and the circuit closes again if it succeeds. A probe that ends without an answer or a failure
+ * of the provider, such as one not sent because of a limit or cancelled, leaves the circuit open for another
+ * while, and so does a probe not answered within that time.<br>
+ * With hedging, a second request is sent when the first one takes longer than the given percentile of the
+ * recent latencies, and the first answer is used. Requests not sent because of the limits of the client,
+ * such as the rate limits, are neither retried nor counted as failures.<br>
+ * The settings are meant to be made before the client is used.
+ *
+ * @author Masahiko Sato
+ */
+public class ResilientLlmClient implements LlmClient {
+    private static final Logger LOGGER = Logger.getLogger(ResilientLlmClient.class.getName());
+
+    // Number of recent latencies kept for hedging, and the number needed before hedging starts
+    private static final int LATENCY_SAMPLES = 100;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    private static final long MAX_DELAY = TimeUnit.SECONDS.toNanos(10);
+
+    private final LlmClient client;
+    private int maxRetries = 2;
+    private long baseDelay = TimeUnit.MILLISECONDS.toNanos(200);
+    private double hedgePercentile;
+    private int failureThreshold = 5;
+    private long openDuration = TimeUnit.SECONDS.toNanos(30);
+
+    private enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+
+    // A request to the client, which may be retried
+    private interface Call<T> {
+        T call() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Creates a client that retries twice from 200 ms and opens the circuit after 5 consecutive failures
+     * for 30 seconds, without hedging.
+     *
+     * @param client The client to send the requests
+     */
+    public ResilientLlmClient(LlmClient client) {
+        if (client == null) {
+            throw new IllegalArgumentException("Client must not be null");
+        }
+        this.client = client;
+    }
+
+    /**
+     * @param maxRetries The number of retries after a failed request
+     * @param baseDelay  The maximum delay before the first retry, which doubles for each retry
+     */
+    public ResilientLlmClient withRetries(int maxRetries, Duration baseDelay) {
+        if (maxRetries < 0 || baseDelay == null || baseDelay.isNegative()) {
+            throw new IllegalArgumentException("Retries and delay must not be negative");
+        }
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay.toNanos();
+        return this;
+    }
+
+    /**
+     * @param percentile The percentile of the recent latencies after which a second request is sent,
+     *                   such as 0.95
+     */
+    public ResilientLlmClient withHedging(double percentile) {
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 1");
+        }
+        hedgePercentile = percentile;
+        return this;
+    }
+
+    /**
+     * @param failureThreshold The number of consecutive failures that opens the circuit
+     * @param openDuration     The time until a request is let through to probe the provider
+     */
+    public ResilientLlmClient withCircuitBreaker(int failureThreshold, Duration openDuration) {
+        if (failureThreshold < 1 || openDuration == null || openDuration.isNegative()) {
+            throw new IllegalArgumentException("Threshold must be positive and duration must not be negative");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration.toNanos();
+        return this;
+    }
+
+    public boolean testConnection() {
+        return client.testConnection();
+    }
+
+    public String getModel() {
+        return client.getModel();
+    }
+
+    /**
+     * @return Whether the requests currently fail at once
+     */
+    public synchronized boolean isCircuitOpen() {
+        return state != State.CLOSED;
+    }
+
+    public String selectBestReading(String kanji, List<String> possibleReadings, String context)
+            throws IOException, InterruptedException {
+        return call(() -> hedgePercentile > 0
+                ? selectHedged(kanji, possibleReadings, context)
+                : client.selectBestReading(kanji, possibleReadings, context));
+    }
+
+    public List<String> selectBestReadings(List<ReadingRequest> requests) throws IOException, InterruptedException {
+        return call(() -> client.selectBestReadings(requests));
+    }
+
+    /**
+     * Select the most appropriate reading for a kanji word without waiting for the answer.<br>
+     * The requests are retried and short-circuited in the same way, but not hedged.
+     */
+    public CompletableFuture<String> selectBestReadingAsync(String kanji, List<String> possibleReadings, String context) {
+        boolean isProbe;
+        try {
+            isProbe = enter();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<String> future;
+        try {
+            future = attemptAsync(kanji, possibleReadings, context, 0);
+        } catch (RuntimeException e) {
+            if (isProbe) {
+                probeEnded();
+            }
+            throw e;
+        }
+        if (isProbe) {
+            // Also run when the caller cancels the future.
+            future.whenComplete((reading, e) -> probeEnded());
+        }
+        return future;
+    }
+
+    private CompletableFuture<String> attemptAsync(String kanji, List<String> possibleReadings, String context, int attempt) {
+        long start = System.nanoTime();
+        return client.selectBestReadingAsync(kanji, possibleReadings, context).handle((reading, e) -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause == null) {
+                succeeded(System.nanoTime() - start);
+                return CompletableFuture.completedFuture(reading);
+            }
+            if (!isRetryable(cause) || !failed(attempt)) {
+                return CompletableFuture.<String>failedFuture(cause);
+            }
+            Executor delayed = CompletableFuture.delayedExecutor(delay(attempt), TimeUnit.NANOSECONDS);
+            return CompletableFuture.supplyAsync(() -> attemptAsync(kanji, possibleReadings, context, attempt + 1), delayed)
+                    .thenCompose(future -> future);
+        }).thenCompose(future -> future);
+    }
+
+    private <T> T call(Call<T> call) throws IOException, InterruptedException {
+        boolean isProbe = enter();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                long start = System.nanoTime();
+                try {
+                    T result = call.call();
+                    succeeded(System.nanoTime() - start);
+                    return result;
+                } catch (IOException e) {
+                    if (!isRetryable(e) || !failed(attempt)) {
+                        throw e;
+                    }
+                    LOGGER.fine("Retrying the LLM request: " + e.getMessage());
+                    TimeUnit.NANOSECONDS.sleep(delay(attempt));
+                }
+            }
+        } finally {
+            if (isProbe) {
+                probeEnded();
+            }
+        }
+    }
+
+    private String selectHedged(String kanji, List<String> possibleReadings, String context)
+            throws IOException, InterruptedException {
+        long hedgeDelay = getLatencyPercentile(hedgePercentile);
+        CompletableFuture<String> first = client.selectBestReadingAsync(kanji, possibleReadings, context);
+        try {
+            if (hedgeDelay < 0) {
+                return first.get();
+            }
+            try {
+                return first.get(hedgeDelay, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // Send a second request and use whichever answer comes first.
+            }
+            CompletableFuture<String> second = client.selectBestReadingAsync(kanji, possibleReadings, context);
+            CompletableFuture<String> either = new CompletableFuture<>();
+            AtomicInteger failures = new AtomicInteger();
+            for (CompletableFuture<String> future : List.of(first, second)) {
+                future.whenComplete((reading, e) -> {
+                    if (e == null) {
+                        either.complete(reading);
+                    } else if (failures.incrementAndGet() == 2) {
+                        either.completeExceptionally(e);
+                    }
+                });
+            }
+            try {
+                return either.get();
+            } finally {
+                first.cancel(true);
+                second.cancel(true);
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                    ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static boolean isRetryable(Throwable e) {
+        return e instanceof IOException && !(e instanceof LlmTransport.LimitExceededException);
+    }
+
+    private long delay(int attempt) {
+        long maxDelay = Math.min(MAX_DELAY, baseDelay << Math.min(attempt, 20));
+        return maxDelay > 0 ? ThreadLocalRandom.current().nextLong(maxDelay + 1) : 0;
+    }
+
+    /**
+     * Let a request through unless the circuit is open.<br>
+     * A probe that has not ended within the open duration, such as one whose answer is no longer awaited,
+     * is given up and another one is let through.
+     *
+     * @return Whether the request probes the provider
+     * @throws IOException If the circuit is open
+     */
+    private synchronized boolean enter() throws IOException {
+        if (state == State.CLOSED) {
+            return false;
+        }
+        long now = System.nanoTime();
+        if (now - openedAt >= openDuration) {
+            // Let this request through to probe the provider.
+            state = State.HALF_OPEN;
+            openedAt = now;
+            return true;
+        }
+        throw new IOException("Circuit breaker of the LLM is open");
+    }
+
+    /**
+     * Open the circuit again if the probe has ended without a success or a failure being recorded, such as
+     * when it was not sent because of a limit, interrupted or cancelled.
+     */
+    private synchronized void probeEnded() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    private synchronized void succeeded(long latency) {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        latencies[latencyCount++ % LATENCY_SAMPLES] = latency;
+    }
+
+    /**
+     * Record a failure of the given attempt.
+     *
+     * @return Whether the request can be retried
+     */
+    private synchronized boolean failed(int attempt) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                LOGGER.warning("Circuit breaker of the LLM is opened after " + consecutiveFailures + " failures");
+            }
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            return false;
+        }
+        return attempt < maxRetries;
+    }
+
+    /**
+     * @return The latency at the percentile of the recent requests, or -1 if there are too few of them
+     */
+    private synchronized long getLatencyPercentile(double percentile) {
+        int count = Math.min(latencyCount, LATENCY_SAMPLES);
+        if (count < MIN_LATENCY_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(percentile * count) - 1];
+    }
+}
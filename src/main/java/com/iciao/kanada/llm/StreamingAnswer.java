@@ -0,0 +1,115 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada.llm;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Answer of an LLM received in pieces, which selects the reading as soon as the pieces received so far
+ * identify one of the candidates.<br>
+ * A number is decided once it is followed by another character, or once no more digits can make it the
+ * number of a candidate. A reading answered as text is decided once the answer starts with it and cannot
+ * become a longer candidate. Otherwise the reading is selected from the whole answer.
+ *
+ * @author Masahiko Sato
+ */
+final class StreamingAnswer {
+    private static final Pattern NUMBER = Pattern.compile("\\d+");
+    private static final Pattern LEADING_SYMBOLS = Pattern.compile("^[^\\p{L}\\d]+");
+
+    private final List<String> possibleReadings;
+    private final StringBuilder content = new StringBuilder();
+
+    StreamingAnswer(List<String> possibleReadings) {
+        this.possibleReadings = possibleReadings;
+    }
+
+    /**
+     * Read the pieces of the answer from the lines of a streamed response, until the reading is decided.
+     *
+     * @param pieceOf Extracts the piece of the answer from a line, or returns null if the line has none
+     */
+    static String read(Stream<String> lines, Function<String, String> pieceOf, List<String> possibleReadings)
+            throws IOException {
+        StreamingAnswer answer = new StreamingAnswer(possibleReadings);
+        Iterator<String> iterator = lines.iterator();
+        while (iterator.hasNext()) {
+            String line = iterator.next();
+            String piece = line.isBlank() ? null : pieceOf.apply(line);
+            if (piece != null) {
+                String reading = answer.append(piece);
+                if (reading != null) {
+                    return reading;
+                }
+            }
+        }
+        return answer.finish();
+    }
+
+    /**
+     * @return The reading identified by the answer so far, or null if more of the answer is needed
+     */
+    String append(String piece) {
+        content.append(piece);
+        String answer = ReadingPrompt.stripThinking(content);
+        Matcher matcher = NUMBER.matcher(answer);
+        if (matcher.find()) {
+            String number = matcher.group();
+            if (number.length() > 3) {
+                return null;
+            }
+            int index = Integer.parseInt(number);
+            if (matcher.end() == answer.length() && index * 10 <= possibleReadings.size()) {
+                // More digits may follow.
+                return null;
+            }
+            return index >= 1 && index <= possibleReadings.size() ? possibleReadings.get(index - 1) : null;
+        }
+
+        String text = LEADING_SYMBOLS.matcher(answer).replaceFirst("");
+        String longest = null;
+        for (String reading : possibleReadings) {
+            if (reading.length() > text.length() && reading.startsWith(text)) {
+                return null;
+            }
+            if (text.startsWith(reading) && (longest == null || reading.length() > longest.length())) {
+                longest = reading;
+            }
+        }
+        return longest;
+    }
+
+    /**
+     * @return The reading selected from the whole answer
+     */
+    String finish() {
+        return ReadingPrompt.parse(content.toString(), possibleReadings);
+    }
+}
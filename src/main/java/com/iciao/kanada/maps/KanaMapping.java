@@ -48,7 +48,11 @@ public class KanaMapping {
         }
     }
 
-    private final KanaMappingData mappingData = new KanaMappingData();
+    public static final long NOT_FOUND = KanaTrie.NOT_FOUND;
+
+    private final KanaTrie trie = KanaTrie.load("kanatable.bin");
+    // Romaji of each value and column: [macron][long vowel][value index][column]
+    private final String[][][][] romajiVariants = new String[2][2][][];
 
     private static KanaMapping instance;
 
@@ -60,10 +64,49 @@ public class KanaMapping {
     }
 
     private KanaMapping() {
+        ConversionSystem[] systems = ConversionSystem.values();
+        for (int macron = 0; macron < 2; macron++) {
+            for (int longVowel = 0; longVowel < 2; longVowel++) {
+                String[][] variants = new String[trie.getValueCount()][systems.length];
+                for (int i = 0; i < variants.length; i++) {
+                    for (ConversionSystem system : systems) {
+                        String romaji = trie.getValues(i)[system.getColumnIndex() - 2];
+                        if (longVowel == 1) {
+                            romaji = processLongVowels(romaji, system);
+                        }
+                        if (macron == 0) {
+                            romaji = removeMacrons(romaji);
+                        }
+                        variants[i][system.ordinal()] = romaji;
+                    }
+                }
+                romajiVariants[macron][longVowel] = variants;
+            }
+        }
+    }
+
+    /**
+     * Find the longest kana sequence that starts at the given position.
+     *
+     * @return The match to pass to {@link #getTransliteration} and {@link #matchLength}, or {@link #NOT_FOUND}
+     */
+    public long findTransliteration(CharSequence str, int start) {
+        return trie.searchLongest(str, start);
     }
 
-    public KanaTrie.MatchResult getTransliterations(String str) {
-        return mappingData.getTransliterations(str);
+    public String getTransliteration(long match, ConversionSystem system) {
+        return trie.getValues(KanaTrie.valueIndex(match))[system.getColumnIndex() - 2];
+    }
+
+    /**
+     * Get the romaji of a match, precomputed for the macron mode and a following long vowel mark.
+     */
+    public String getRomaji(long match, ConversionSystem system, boolean macron, boolean longVowel) {
+        return romajiVariants[macron ? 1 : 0][longVowel ? 1 : 0][KanaTrie.valueIndex(match)][system.ordinal()];
+    }
+
+    public static int matchLength(long match) {
+        return KanaTrie.matchLength(match);
     }
 
     public String removeMacrons(String text) {
@@ -100,9 +143,31 @@ public class KanaMapping {
         return sb.toString();
     }
 
+    /**
+     * Lengthen a single vowel in the same way as {@link #processLongVowels}.
+     */
+    public char getLongVowel(char c, ConversionSystem system) {
+        int index = switch (system) {
+            case MODIFIED_HEPBURN -> 0;
+            case KUNREI, NIHON -> 1;
+            default -> -1; // long vowel marks are omitted in other cases
+        };
+        if (index < 0) {
+            return c;
+        }
+        return switch (c) {
+            case 'a' -> "āâ".charAt(index);
+            case 'i' -> "īî".charAt(index);
+            case 'u' -> "ūû".charAt(index);
+            case 'e' -> "ēê".charAt(index);
+            case 'o' -> "ōô".charAt(index);
+            default -> c;
+        };
+    }
+
     public char getRomajiInitial(char c, ConversionSystem system) {
-        KanaTrie.MatchResult result = getTransliterations(String.valueOf(c));
-        String romaji = result != null ? result.values()[system.getColumnIndex() - 2] : null;
+        long match = trie.searchLongest(c);
+        String romaji = match != NOT_FOUND ? getTransliteration(match, system) : null;
         if (romaji == null || romaji.isEmpty()) {
             return 0;
         }
@@ -23,43 +23,154 @@
  */
 package com.iciao.kanada.maps;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 
+/**
+ * Longest-match trie of kana sequences loaded from the binary table compiled by tools/generate_mapping.py.<br>
+ * The first character is looked up in a dense table over the hiragana and katakana blocks,
+ * and the following characters in the sorted children of each node.
+ * Searches return the value index and the matched length packed into a long and allocate nothing.
+ *
+ * @author Masahiko Sato
+ */
 class KanaTrie {
-    static class TrieNode {
-        Map<Character, TrieNode> children = new HashMap<>();
-        String[] romanizations;
-    }
+    static final long NOT_FOUND = -1L;
+
+    private static final int MAGIC = 0x4B414E41; // "KANA"
+    private static final short VERSION = 1;
+
+    private static final char DENSE_FIRST = 0x3040;
+    private static final char DENSE_LAST = 0x30ff;
+
+    // Node of the first character of each key, or -1
+    private final int[] denseRoot = new int[DENSE_LAST - DENSE_FIRST + 1];
+    // Edges of node n are childStart[n] to childStart[n + 1] - 1, sorted by character. Edge e leads to node e + 1.
+    private final int[] childStart;
+    private final char[] childChars;
+    // Value index of each node, or -1
+    private final int[] nodeValues;
+    private final String[][] values;
+
+    private KanaTrie(ByteBuffer data) {
+        if (data.getInt() != MAGIC || data.getShort() != VERSION) {
+            throw new IllegalStateException("Unsupported kana table format");
+        }
+        int columnCount = data.getInt();
 
-    private final TrieNode root = new TrieNode();
+        String[] strings = new String[data.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            char[] chars = new char[data.getChar()];
+            data.asCharBuffer().get(chars);
+            data.position(data.position() + chars.length * Character.BYTES);
+            strings[i] = new String(chars);
+        }
+
+        int nodeCount = data.getInt();
+        childStart = new int[nodeCount + 1];
+        data.asIntBuffer().get(childStart);
+        data.position(data.position() + childStart.length * Integer.BYTES);
+        childChars = new char[childStart[nodeCount]];
+        data.asCharBuffer().get(childChars);
+        data.position(data.position() + childChars.length * Character.BYTES);
+        nodeValues = new int[nodeCount];
+        data.asIntBuffer().get(nodeValues);
+        data.position(data.position() + nodeValues.length * Integer.BYTES);
+
+        values = new String[data.getInt()][columnCount];
+        for (String[] columns : values) {
+            for (int column = 0; column < columnCount; column++) {
+                columns[column] = strings[data.getChar()];
+            }
+        }
 
-    void insert(String key, String[] values) {
-        TrieNode node = root;
-        for (char c : key.toCharArray()) {
-            node = node.children.computeIfAbsent(c, k -> new TrieNode());
+        for (int i = 0; i < denseRoot.length; i++) {
+            denseRoot[i] = findChild(0, (char) (DENSE_FIRST + i));
         }
-        node.romanizations = values;
     }
 
-    public MatchResult searchLongest(String input) {
-        TrieNode node = root;
-        String[] result = null;
-        int matchLength = 0;
+    /**
+     * Load a compiled table from the classpath with a single read.
+     */
+    static KanaTrie load(String resource) {
+        try (InputStream in = KanaTrie.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Kana table not found: " + resource);
+            }
+            return new KanaTrie(ByteBuffer.wrap(in.readAllBytes()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static int valueIndex(long match) {
+        return (int) (match >>> 32);
+    }
+
+    static int matchLength(long match) {
+        return (int) match;
+    }
+
+    int getValueCount() {
+        return values.length;
+    }
 
-        for (int i = 0; i < input.length(); i++) {
-            char ch = input.charAt(i);
-            node = node.children.get(ch);
-            if (node == null) break;
-            if (node.romanizations != null) {
-                result = node.romanizations;
-                matchLength = i + 1;
+    String[] getValues(int valueIndex) {
+        return values[valueIndex];
+    }
+
+    /**
+     * Find the longest key that starts at the given position.
+     *
+     * @return The value index and the length of the key packed by {@link #valueIndex} and {@link #matchLength},
+     * or {@link #NOT_FOUND}
+     */
+    long searchLongest(CharSequence input, int start) {
+        int length = input.length();
+        if (start >= length) {
+            return NOT_FOUND;
+        }
+        char first = input.charAt(start);
+        int node = first >= DENSE_FIRST && first <= DENSE_LAST ? denseRoot[first - DENSE_FIRST] : findChild(0, first);
+        int value = -1;
+        int matchLength = 0;
+        for (int i = start + 1; node > 0; i++) {
+            if (nodeValues[node] >= 0) {
+                value = nodeValues[node];
+                matchLength = i - start;
+            }
+            if (i == length) {
+                break;
             }
+            node = findChild(node, input.charAt(i));
         }
+        return value < 0 ? NOT_FOUND : (long) value << 32 | matchLength;
+    }
 
-        return result != null ? new MatchResult(result, matchLength) : null;
+    /**
+     * Find the key that consists of the given character only.
+     */
+    long searchLongest(char c) {
+        int node = c >= DENSE_FIRST && c <= DENSE_LAST ? denseRoot[c - DENSE_FIRST] : findChild(0, c);
+        return node > 0 && nodeValues[node] >= 0 ? (long) nodeValues[node] << 32 | 1 : NOT_FOUND;
     }
 
-    public record MatchResult(String[] values, int length) {
+    private int findChild(int node, char c) {
+        int low = childStart[node];
+        int high = childStart[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = childChars[mid];
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return mid + 1;
+            }
+        }
+        return -1;
     }
-}
\ No newline at end of file
+}
@@ -24,7 +24,9 @@
 package com.iciao.kanada.maps;
 
 import com.iciao.kanada.JMapper;
-import com.iciao.kanada.Kanada;
+import com.iciao.kanada.Converter;
+
+import java.io.IOException;
 
 /**
  * Map ASCII characters to fullwidth forms when appropriate.
@@ -33,70 +35,79 @@ import com.iciao.kanada.Kanada;
  */
 public class MapAscii extends JMapper {
 
-    public MapAscii(Kanada kanada) {
-        super(kanada);
+    public MapAscii(Converter converter, int option) {
+        super(converter, option);
+    }
+
+    @Override
+    protected boolean isSingleCharMapping() {
+        return option == JMapper.TO_WIDE_ASCII;
+    }
+
+    @Override
+    protected int[] getShift() {
+        return option == JMapper.TO_WIDE_ASCII ? new int[]{0x21, 0x7e, 0xfee0} : null;
     }
 
     @Override
-    protected void process(String str, int param) {
-        StringBuilder out = new StringBuilder();
-        int thisChar = str.codePointAt(0);
-        if (param == JMapper.TO_WIDE_ASCII && thisChar > 0x20 && thisChar < 0x7f) {
-            out.appendCodePoint(thisChar + 0xfee0);
-        } else if (param == JMapper.TO_KANA_BRAILLE) {
+    protected int process(CharSequence src, int start, Appendable out) throws IOException {
+        int thisChar = Character.codePointAt(src, start);
+        if (option == JMapper.TO_WIDE_ASCII && thisChar > 0x20 && thisChar < 0x7f) {
+            appendCodePoint(out, thisChar + 0xfee0);
+        } else if (option == JMapper.TO_KANA_BRAILLE) {
             if (thisChar >= '0' && thisChar <= '9') {
-                out.append(numbersToBraille(str));
+                return numbersToBraille(src, start, out);
             } else if (thisChar >= 'A' && thisChar <= 'Z' || thisChar >= 'a' && thisChar <= 'z') {
-                out.append(alphabetsToBraille(str));
+                return alphabetsToBraille(src, start, out);
             } else if (thisChar == ' ') {
                 out.append('\u2800');
             } else {
-                out.appendCodePoint(thisChar);
+                appendCodePoint(out, thisChar);
             }
         } else {
-            out.appendCodePoint(thisChar);
+            appendCodePoint(out, thisChar);
         }
-        setString(out.toString());
+        return 1;
     }
 
-    private String alphabetsToBraille(String str) {
+    private int alphabetsToBraille(CharSequence src, int start, Appendable out) throws IOException {
         int count = 0;
         //TODO: 途中に空白が含まれる場合は引用なので、外字符ではなく外国語引用符をつかう
         //TODO: 大文字が連続する場合は二重大文字符をつかう
         //TODO: ハイフンが挟まる場合はつなぎ符をつかう
         //TODO: スラッシュは外字付の効果をキャンセルしない
         //TODO: 情報処理用点字とは？
-        StringBuilder alphabets = new StringBuilder("⠦");
-        for (char c : str.toCharArray()) {
+        out.append('⠦');
+        for (int i = start; i < src.length(); i++) {
+            char c = src.charAt(i);
             if (c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c == '.' || c == ',' || c == ' ' || c == '/') {
-                alphabets.append(BASIC_LATIN_TO_BRAILLE[c - 0x0020]);
+                out.append(BASIC_LATIN_TO_BRAILLE[c - 0x0020]);
                 count++;
             } else {
                 break;
             }
         }
-        matchedLength = count;
-        return alphabets.toString();
+        return count;
     }
 
-    private String numbersToBraille(String str) {
+    private int numbersToBraille(CharSequence src, int start, Appendable out) throws IOException {
         int count = 0;
-        StringBuilder numbers = new StringBuilder("⠼");
-        for (char c : str.toCharArray()) {
+        out.append('⠼');
+        for (int i = start; i < src.length(); i++) {
+            char c = src.charAt(i);
             if (c >= '0' && c <= '9' || c == '.' || c == ',' || c == ' ' || c == '\u2800') {
                 //TODO: 次の文字がア行・ラ行以外のかな（つまり数字でなければ）であれば、つなぎ付は不要
                 if (c == ' ' || c == '\u2800') {
-                    numbers.append('⠤');
+                    out.append('⠤');
                 } else {
-                    numbers.append(BASIC_LATIN_TO_BRAILLE[c - 0x0020]);
+                    out.append(BASIC_LATIN_TO_BRAILLE[c - 0x0020]);
                 }
                 count++;
             } else {
                 break;
             }
         }
-        matchedLength = count;
-        return numbers.toString();
+        return count;
     }
 
     /*
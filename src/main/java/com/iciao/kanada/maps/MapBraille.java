@@ -24,8 +24,9 @@
 package com.iciao.kanada.maps;
 
 import com.iciao.kanada.JMapper;
-import com.iciao.kanada.Kanada;
+import com.iciao.kanada.Converter;
 
+import java.io.IOException;
 import java.util.EnumSet;
 
 /**
@@ -74,11 +75,8 @@ public class MapBraille extends JMapper {
     private static final char DOTS_1245 = '⠛'; // U+281B 「れ」
     private static final char DOTS_123456 = '⠿'; // U+283F 「め」
 
-    private BrailleMode currentMode = BrailleMode.KANA;
-    private final EnumSet<BracketType> bracketStates = EnumSet.noneOf(BracketType.class);
-
-    public MapBraille(Kanada kanada) {
-        super(kanada);
+    public MapBraille(Converter converter, int option) {
+        super(converter, option);
     }
 
     private static BracketType getBracketType(char thisChar, char nextChar) {
@@ -114,7 +112,7 @@ public class MapBraille extends JMapper {
         return null;
     }
 
-    private static StarType getStarType(String text, int i) {
+    private static StarType getStarType(CharSequence text, int start, int i) {
         if (text.length() - i < 3) {
             return null;
         }
@@ -130,10 +128,10 @@ public class MapBraille extends JMapper {
         if (thisChar == DOTS_6 && nextChar == DOTS_25) {
             return StarType.THIRD_STAR;
         }
-        if (i < 2 || text.charAt(i - 1) != DOTS_0 || text.charAt(i - 2) != DOTS_0) {
+        if (i - start < 2 || text.charAt(i - 1) != DOTS_0 || text.charAt(i - 2) != DOTS_0) {
             return null;
         }
-        if (i > 3 && text.charAt(i - 3) != '\n') {
+        if (i - start > 3 && text.charAt(i - 3) != '\n') {
             return null;
         }
         if (thisChar == DOTS_35 && nextChar == DOTS_35) {
@@ -144,12 +142,12 @@ public class MapBraille extends JMapper {
         return null;
     }
 
-    private static ArrowType getArrowType(String text, int i) {
+    private static ArrowType getArrowType(CharSequence text, int start, int i) {
         if (text.length() - i < 3) {
             return null;
         }
         // Require a blank cell immediately before
-        if (i != 0 && !isBlankSpace(text.charAt(i - 1)) && !isLineBreak(text.charAt(i - 1))) {
+        if (i != start && !isBlankSpace(text.charAt(i - 1)) && !isLineBreak(text.charAt(i - 1))) {
             return null;
         }
         // Check the arrow pattern
@@ -177,7 +175,7 @@ public class MapBraille extends JMapper {
         return null;
     }
 
-    private static FrameBorderType getFrameBorderType(String text, int i) {
+    private static FrameBorderType getFrameBorderType(CharSequence text, int i) {
         if (text.length() - i < 3) {
             return null;
         }
@@ -266,7 +264,7 @@ public class MapBraille extends JMapper {
         return BrailleMapping.KUTOUTEN_MAP.containsKey(c);
     }
 
-    private static int findDashes(String text, int i) {
+    private static int findDashes(CharSequence text, int start, int i) {
         if (text.length() - i < 2) {
             return 0;
         }
@@ -274,7 +272,7 @@ public class MapBraille extends JMapper {
             return 0;
         }
         // Require a blank cell immediately before
-        if (i != 0 && !isBlankSpace(text.charAt(i - 1)) && !isLineBreak(text.charAt(i - 1))) {
+        if (i != start && !isBlankSpace(text.charAt(i - 1)) && !isLineBreak(text.charAt(i - 1))) {
             return 0;
         }
         // DOTS_25 may be repeated more than twice
@@ -294,7 +292,7 @@ public class MapBraille extends JMapper {
         return 0;
     }
 
-    private static int findEllipses(String text, int i) {
+    private static int findEllipses(CharSequence text, int start, int i) {
         if (text.length() - i < 3) {
             return 0;
         }
@@ -309,7 +307,7 @@ public class MapBraille extends JMapper {
         // 原則として、棒線と点線の前後は必ず一マスあけである。
         // ただし、点線を語頭や語中に使うときは、後ろにマスあけしなくてもよい。句点が続くときも、後はマスあけをしない。
         // 前は必ずマスあけをする。マスあけをしないと、「っっっ」になってしまう。
-        if (i == 0) {
+        if (i == start) {
             return ellipses;
         }
         char charBefore = text.charAt(i - 1);
@@ -319,7 +317,7 @@ public class MapBraille extends JMapper {
         return 0;
     }
 
-    private static int findFrameBorderSize(String text, int i, FrameBorderType frameBorder) {
+    private static int findFrameBorderSize(CharSequence text, int i, FrameBorderType frameBorder) {
         if (text.length() < i + 2) {
             return 0;
         }
@@ -393,36 +391,38 @@ public class MapBraille extends JMapper {
     }
 
     @Override
-    protected void process(String brailleStr, int param) {
-        String str = brailleToText(brailleStr);
-        setString(this.kanada.process(str));
+    protected int process(CharSequence src, int start, Appendable out) throws IOException {
+        StringBuilder text = new StringBuilder();
+        int length = brailleToText(src, start, text);
+        out.append(this.converter.process(text.toString()));
+        return length;
     }
 
-    private boolean setBrailleMode(char c1, char c2) {
+    private static boolean setBrailleMode(BrailleContext context, char c1, char c2) {
         return switch (c1) {
             // 数字符
             case DOTS_3456 -> {
-                currentMode = BrailleMode.NUMBER;
+                context.currentMode = BrailleMode.NUMBER;
                 yield true;
             }
             // 外字符
             case DOTS_56 -> {
                 if (c2 == DOTS_3 || c2 == DOTS_36 || c2 == DOTS_2356 || c2 == DOTS_0 || c2 == '\n') {
                     // 第２カギ、二重カギ、二重カッコの開始、読点
-                    resetBrailleMode();
+                    context.resetBrailleMode();
                     yield false;
                 }
-                currentMode = BrailleMode.LATIN;
+                context.currentMode = BrailleMode.LATIN;
                 yield true;
             }
             // 大文字符 / 二重大文字符（２連続で）/ 半濁音符
             case DOTS_6 -> {
-                if (currentMode == BrailleMode.LATIN) {
-                    currentMode = BrailleMode.LATIN_CAPITAL;
-                } else if (currentMode == BrailleMode.LATIN_CAPITAL) {
-                    currentMode = BrailleMode.LATIN_CAPITAL_ALL;
+                if (context.currentMode == BrailleMode.LATIN) {
+                    context.currentMode = BrailleMode.LATIN_CAPITAL;
+                } else if (context.currentMode == BrailleMode.LATIN_CAPITAL) {
+                    context.currentMode = BrailleMode.LATIN_CAPITAL_ALL;
                 } else {
-                    resetBrailleMode(); // 半濁音符
+                    context.resetBrailleMode(); // 半濁音符
                     yield false;
                 }
                 yield true;
@@ -431,29 +431,21 @@ public class MapBraille extends JMapper {
         };
     }
 
-    private void resetBrailleMode() {
-        currentMode = BrailleMode.KANA;
-    }
-
-    private void toggleBracketState(BracketType bracketType) {
-        if (bracketStates.contains(bracketType)) {
-            bracketStates.remove(bracketType);
-        } else {
-            bracketStates.add(bracketType);
-        }
-    }
-
-    private String brailleToText(String brailleText) {
-        StringBuilder result = new StringBuilder();
+    /**
+     * Decode a run of braille patterns and line breaks into text.
+     *
+     * @return The number of characters decoded
+     */
+    private static int brailleToText(CharSequence brailleText, int start, StringBuilder result) {
+        BrailleContext context = new BrailleContext();
         char punctuation = 0;
         boolean latinQuoteIn = false;
 
-        for (int i = 0; i < brailleText.length(); i++) {
+        for (int i = start; i < brailleText.length(); i++) {
             char thisChar = brailleText.charAt(i);
             Character.UnicodeBlock block = Character.UnicodeBlock.of(thisChar);
             if (block != Character.UnicodeBlock.BRAILLE_PATTERNS && !isLineBreak(thisChar)) {
-                matchedLength = i;
-                return result.toString();
+                return i - start;
             }
             // Store punctuation indicator
             if (isPunctuation(thisChar)) {
@@ -467,20 +459,20 @@ public class MapBraille extends JMapper {
             }
 
             // Update braille mode
-            if (setBrailleMode(thisChar, nextChar)) {
+            if (setBrailleMode(context, thisChar, nextChar)) {
                 continue;
             }
 
             // 情報処理用点字表記
             // TODO: 外国語引用符との区別の仕方
             if (thisChar == DOTS_6 && nextChar == DOTS_236 && !latinQuoteIn) {
-                currentMode = BrailleMode.LATIN;
+                context.currentMode = BrailleMode.LATIN;
                 latinQuoteIn = true;
                 i += 1;
                 continue;
             }
             if (thisChar == DOTS_6 && nextChar == DOTS_356 && latinQuoteIn) {
-                resetBrailleMode();
+                context.resetBrailleMode();
                 latinQuoteIn = false;
                 i += 1;
                 continue;
@@ -500,7 +492,7 @@ public class MapBraille extends JMapper {
 
             // 外国語引用符
             if (thisChar == DOTS_236 && !latinQuoteIn) {
-                currentMode = BrailleMode.LATIN;
+                context.currentMode = BrailleMode.LATIN;
                 latinQuoteIn = true;
                 continue;
             }
@@ -522,14 +514,14 @@ public class MapBraille extends JMapper {
             if (thisChar == DOTS_0) {
                 result.append(" ");
                 if (!latinQuoteIn) {
-                    resetBrailleMode(); // 空白または改行なので外字符などの効力が切れる
+                    context.resetBrailleMode(); // 空白または改行なので外字符などの効力が切れる
                 }
                 continue;
             }
 
             // Numerals
-            if (currentMode == BrailleMode.NUMBER) {
-                String number = getNumeric(thisChar, nextChar, latinQuoteIn);
+            if (context.currentMode == BrailleMode.NUMBER) {
+                String number = getNumeric(context, thisChar, nextChar, latinQuoteIn);
                 if (number != null) {
                     result.append(number);
                     if (thisChar == DOTS_256) {
@@ -540,10 +532,10 @@ public class MapBraille extends JMapper {
             }
 
             // Latin characters
-            if (currentMode == BrailleMode.LATIN ||
-                    currentMode == BrailleMode.LATIN_CAPITAL ||
-                    currentMode == BrailleMode.LATIN_CAPITAL_ALL) {
-                String latin = getLatin(thisChar, latinQuoteIn);
+            if (context.currentMode == BrailleMode.LATIN ||
+                    context.currentMode == BrailleMode.LATIN_CAPITAL ||
+                    context.currentMode == BrailleMode.LATIN_CAPITAL_ALL) {
+                String latin = getLatin(context, thisChar, latinQuoteIn);
                 if (latin != null) {
                     result.append(latin);
                     punctuation = 0; // 読点ではなく外字符のため punctuation をリセット
@@ -567,7 +559,7 @@ public class MapBraille extends JMapper {
                         continue;
                     }
                     if (thisChar == DOTS_356) {
-                        resetBrailleMode(); // 外国語引用符（終了）
+                        context.resetBrailleMode(); // 外国語引用符（終了）
                         if (nextChar == DOTS_36) {
                             i += 1; // 次が第一つなぎ符なので一つ飛ばす
                         }
@@ -576,7 +568,7 @@ public class MapBraille extends JMapper {
                     }
                 } else {
                     // 外字符の効力が切れた
-                    resetBrailleMode();
+                    context.resetBrailleMode();
                 }
             }
 
@@ -622,38 +614,38 @@ public class MapBraille extends JMapper {
             // Brackets
             BracketType thisBracket = getBracketType(thisChar, nextChar);
             if (thisBracket != null) {
-                toggleBracketState(thisBracket);
+                context.toggleBracketState(thisBracket);
                 switch (thisBracket) {
                     case PARENTHESIS -> {
-                        result.append(bracketStates.contains(thisBracket) ? "（" : "）");
+                        result.append(context.bracketStates.contains(thisBracket) ? "（" : "）");
                         continue;
                     }
                     case SECONDARY_PARENTHESIS -> {
-                        result.append(bracketStates.contains(thisBracket) ? "〈" : "〉");
+                        result.append(context.bracketStates.contains(thisBracket) ? "〈" : "〉");
                         i += 1;
                         continue;
                     }
                     case DOUBLE_PARENTHESIS -> {
-                        result.append(bracketStates.contains(thisBracket) ? "⸨" : "⸩");
+                        result.append(context.bracketStates.contains(thisBracket) ? "⸨" : "⸩");
                         i += 1;
                         continue;
                     }
                     case CORNER_BRACKET -> {
-                        result.append(bracketStates.contains(thisBracket) ? "「" : "」");
+                        result.append(context.bracketStates.contains(thisBracket) ? "「" : "」");
                         continue;
                     }
                     case SECONDARY_CORNER_BRACKET -> {
-                        result.append(bracketStates.contains(thisBracket) ? "《" : "》");
+                        result.append(context.bracketStates.contains(thisBracket) ? "《" : "》");
                         i += 1;
                         continue;
                     }
                     case DOUBLE_CORNER_BRACKET -> {
-                        result.append(bracketStates.contains(thisBracket) ? "『" : "』");
+                        result.append(context.bracketStates.contains(thisBracket) ? "『" : "』");
                         i += 1;
                         continue;
                     }
                     case TRANSLATORS_NOTE -> {
-                        result.append(bracketStates.contains(thisBracket) ? "（（" : "））");
+                        result.append(context.bracketStates.contains(thisBracket) ? "（（" : "））");
                         i += 1;
                         continue;
                     }
@@ -661,7 +653,7 @@ public class MapBraille extends JMapper {
             }
 
             // Ellipses
-            int ellipses = findEllipses(brailleText, i);
+            int ellipses = findEllipses(brailleText, start, i);
             if (thisChar == DOTS_2 && ellipses > 0) {
                 result.append("…".repeat(ellipses));
                 i += ellipses - 1;
@@ -669,7 +661,7 @@ public class MapBraille extends JMapper {
             }
 
             // Dashes
-            int dashes = findDashes(brailleText, i);
+            int dashes = findDashes(brailleText, start, i);
             if (thisChar == DOTS_25 && dashes > 0) {
                 result.append("―".repeat(dashes));
                 i += dashes - 1;
@@ -677,7 +669,7 @@ public class MapBraille extends JMapper {
             }
 
             // Stars
-            StarType star = getStarType(brailleText, i);
+            StarType star = getStarType(brailleText, start, i);
             if (star != null) {
                 switch (star) {
                     case FIRST_STAR -> result.append("★");
@@ -689,7 +681,7 @@ public class MapBraille extends JMapper {
             }
 
             //  Arrows
-            ArrowType arrow = getArrowType(brailleText, i);
+            ArrowType arrow = getArrowType(brailleText, start, i);
             if (arrow != null) {
                 switch (arrow) {
                     case RIGHT_ARROW -> result.append("--→");
@@ -705,12 +697,12 @@ public class MapBraille extends JMapper {
             }
 
             // Kana characters
-            String kana = getKana(thisChar);
+            String kana = getKana(context, thisChar);
             if (kana != null) {
                 result.append(kana);
                 continue;
             }
-            kana = getKana(thisChar, nextChar);
+            kana = getKana(context, thisChar, nextChar);
             if (kana != null) {
                 result.append(kana);
                 i += 1;
@@ -731,16 +723,15 @@ public class MapBraille extends JMapper {
                 System.err.println("Unknown character: " + thisChar);
             }
         }
-        matchedLength = brailleText.length();
-        return result.toString();
+        return brailleText.length() - start;
     }
 
-    private String getNumeric(char thisChar, char nextChar, boolean latinQuoteIn) {
+    private static String getNumeric(BrailleContext context, char thisChar, char nextChar, boolean latinQuoteIn) {
         if (thisChar == DOTS_36) {
             // 次があ行・ら行の場合は、第一つなぎ符
             String nextDigit = BrailleMapping.DIGIT_MAP.get(nextChar);
             if (nextDigit != null && nextDigit.length() == 1 && Character.isDigit(nextDigit.charAt(0))) {
-                currentMode = latinQuoteIn ? BrailleMode.LATIN : BrailleMode.KANA;
+                context.currentMode = latinQuoteIn ? BrailleMode.LATIN : BrailleMode.KANA;
                 return "";  // 数字の終端なので、nullではなく空文字を返して次の文字に進む
             } else if (nextChar == DOTS_3456 || nextChar == DOTS_56) {
                 return "-"; // 次が数字符・外字符なのでハイフンとみなす
@@ -748,24 +739,24 @@ public class MapBraille extends JMapper {
         }
         String digit = BrailleMapping.DIGIT_MAP.get(thisChar);
         if (digit == null) {
-            currentMode = latinQuoteIn ? BrailleMode.LATIN : BrailleMode.KANA;
+            context.currentMode = latinQuoteIn ? BrailleMode.LATIN : BrailleMode.KANA;
         }
         return digit;
     }
 
-    private String getLatin(char thisChar, boolean latinQuoteIn) {
+    private static String getLatin(BrailleContext context, char thisChar, boolean latinQuoteIn) {
         String result = null;
         // 第一つなぎ符の場合は、かな表記にリセット
         if (thisChar == DOTS_36 && !latinQuoteIn) {
-            resetBrailleMode();
+            context.resetBrailleMode();
             return null;
         }
         String latin = BrailleMapping.LATIN_MAP.get(thisChar);
         if (latin != null) {
-            if (currentMode == BrailleMode.LATIN_CAPITAL) {
+            if (context.currentMode == BrailleMode.LATIN_CAPITAL) {
                 result = latin.toUpperCase();
-                currentMode = BrailleMode.LATIN;
-            } else if (currentMode == BrailleMode.LATIN_CAPITAL_ALL) {
+                context.currentMode = BrailleMode.LATIN;
+            } else if (context.currentMode == BrailleMode.LATIN_CAPITAL_ALL) {
                 result = latin.toUpperCase();
             } else {
                 result = latin;
@@ -774,15 +765,15 @@ public class MapBraille extends JMapper {
         return result;
     }
 
-    private String getKana(char thisChar) {
+    private static String getKana(BrailleContext context, char thisChar) {
         String kana = BrailleMapping.KANA_MAP.get(thisChar);
         if (kana != null) {
-            resetBrailleMode();
+            context.resetBrailleMode();
         }
         return kana;
     }
 
-    private String getKana(char thisChar, char nextChar) {
+    private static String getKana(BrailleContext context, char thisChar, char nextChar) {
         String result = null;
         String kana = BrailleMapping.KANA_MAP.get(nextChar);
         if (kana == null) {
@@ -800,7 +791,7 @@ public class MapBraille extends JMapper {
             case DOTS_56 -> result = BrailleMapping.toSpecial56(kana);
         }
         if (result != null) {
-            resetBrailleMode();
+            context.resetBrailleMode();
         }
         return result;
     }
@@ -838,6 +829,24 @@ public class MapBraille extends JMapper {
         DIVIDER_TEXT_RIGHT
     }
 
+    // Decoder state of a braille run
+    private static final class BrailleContext {
+        private final EnumSet<BracketType> bracketStates = EnumSet.noneOf(BracketType.class);
+        private BrailleMode currentMode = BrailleMode.KANA;
+
+        private void resetBrailleMode() {
+            currentMode = BrailleMode.KANA;
+        }
+
+        private void toggleBracketState(BracketType bracketType) {
+            if (bracketStates.contains(bracketType)) {
+                bracketStates.remove(bracketType);
+            } else {
+                bracketStates.add(bracketType);
+            }
+        }
+    }
+
     private enum BrailleMode {
         NUMBER,
         LATIN,
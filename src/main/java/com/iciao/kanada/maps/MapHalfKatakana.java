@@ -24,9 +24,9 @@
 package com.iciao.kanada.maps;
 
 import com.iciao.kanada.JMapper;
-import com.iciao.kanada.Kanada;
+import com.iciao.kanada.Converter;
 
-import java.util.Objects;
+import java.io.IOException;
 
 /**
  * Convert half-width katakana characters to hiragana, katakana, romaji, or Braille.
@@ -42,25 +42,24 @@ U+FF9x	ﾐ	ﾑ	ﾒ	ﾓ	ﾔ	ﾕ	ﾖ	ﾗ	ﾘ	ﾙ	ﾚ	ﾛ	ﾜ	ﾝ	ﾞ	ﾟ
 public class MapHalfKatakana extends JMapper {
     private static final KanaMapping kanaMapping = KanaMapping.getInstance();
 
-    public MapHalfKatakana(Kanada kanada) {
-        super(kanada);
+    public MapHalfKatakana(Converter converter, int option) {
+        super(converter, option);
     }
 
     @Override
-    protected void process(String halfKana, int param) {
-        String str = toFullWidthKatakana(halfKana);
-        matchedLength = halfKana.length();
+    protected int process(CharSequence src, int start, Appendable appendable) throws IOException {
+        String str = toFullWidthKatakana(src, start);
 
+        // Long vowel marks rewrite the last character, so the output is built locally.
         StringBuilder out = new StringBuilder();
         for (int i = 0; i < str.length(); ) {
             int codePoint = str.codePointAt(i);
             String kana = String.valueOf(Character.toChars(codePoint));
-            String transliteration = null;
-            if (param == TO_ASCII || param == TO_WIDE_ASCII || param == TO_KANA_BRAILLE) {
-                KanaTrie.MatchResult result = kanaMapping.getTransliterations(str.substring(i));
-                if (result != null) {
-                    transliteration = result.values()[getConversionSystem().getColumnIndex() - 2];
-                    i += result.length();
+            long match = KanaMapping.NOT_FOUND;
+            if (option == TO_ASCII || option == TO_WIDE_ASCII || option == TO_KANA_BRAILLE) {
+                match = kanaMapping.findTransliteration(str, i);
+                if (match != KanaMapping.NOT_FOUND) {
+                    i += KanaMapping.matchLength(match);
                 } else {
                     i += Character.charCount(codePoint);
                 }
@@ -68,7 +67,7 @@ public class MapHalfKatakana extends JMapper {
                 i += Character.charCount(codePoint);
             }
 
-            switch (param) {
+            switch (option) {
                 case TO_HIRAGANA:
                     if (codePoint < 0x30F7 || codePoint == 0x30FD || codePoint == 0x30FE) {
                         out.appendCodePoint(codePoint - 0x60);
@@ -78,15 +77,14 @@ public class MapHalfKatakana extends JMapper {
                     break;
                 case TO_ASCII:
                 case TO_WIDE_ASCII:
-                    if (transliteration != null) {
-                        out.append(modeMacron() ? transliteration : kanaMapping.removeMacrons(transliteration));
+                    if (match != KanaMapping.NOT_FOUND) {
+                        out.append(kanaMapping.getRomaji(match, getConversionSystem(), modeMacron(), false));
                     } else {
                         String punctuation = processPunctuations(kana.charAt(0));
                         if (punctuation != null) {
                             if (punctuation.equals("ー")) {
                                 char prevChar = out.charAt(out.length() - 1);
-                                String longVowel = kanaMapping.processLongVowels(String.valueOf(prevChar), getConversionSystem());
-                                out.setCharAt(out.length() - 1, longVowel.charAt(0));
+                                out.setCharAt(out.length() - 1, kanaMapping.getLongVowel(prevChar, getConversionSystem()));
                             } else {
                                 out.append(punctuation);
                             }
@@ -96,19 +94,24 @@ public class MapHalfKatakana extends JMapper {
                     }
                     break;
                 case TO_KANA_BRAILLE:
-                    out.append(Objects.requireNonNullElse(transliteration, kana));
+                    if (match != KanaMapping.NOT_FOUND) {
+                        out.append(kanaMapping.getTransliteration(match, getConversionSystem()));
+                    } else {
+                        out.append(kana);
+                    }
                     break;
                 default:
                     out.append(kana);
                     break;
             }
         }
-        setString(out.toString());
+        appendable.append(out);
+        return src.length() - start;
     }
 
-    private String toFullWidthKatakana(String str) {
+    private String toFullWidthKatakana(CharSequence str, int start) {
         StringBuilder fullWidth = new StringBuilder();
-        for (int i = 0; i < str.length(); i++) {
+        for (int i = start; i < str.length(); i++) {
             char thisChar = str.charAt(i);
             if (i + 1 < str.length()) {
                 char next = str.charAt(i + 1);
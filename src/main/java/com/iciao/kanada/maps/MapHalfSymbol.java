@@ -24,7 +24,9 @@
 package com.iciao.kanada.maps;
 
 import com.iciao.kanada.JMapper;
-import com.iciao.kanada.Kanada;
+import com.iciao.kanada.Converter;
+
+import java.io.IOException;
 
 /**
  * Remap non-kanji characters.<br>
@@ -33,20 +35,24 @@ import com.iciao.kanada.Kanada;
  */
 public class MapHalfSymbol extends JMapper {
 
-    public MapHalfSymbol(Kanada kanada) {
-        super(kanada);
+    public MapHalfSymbol(Converter converter, int option) {
+        super(converter, option);
+    }
+
+    @Override
+    protected boolean isSingleCharMapping() {
+        return true;
     }
 
     @Override
-    protected void process(String str, int param) {
-        StringBuilder out = new StringBuilder();
-        char thisChar = str.charAt(0);
-        if (param == JMapper.TO_WIDE_SYMBOL) {
+    protected int process(CharSequence src, int start, Appendable out) throws IOException {
+        char thisChar = src.charAt(start);
+        if (option == JMapper.TO_WIDE_SYMBOL) {
             out.append(halfwidthSymbolToFull(thisChar));
         } else {
             out.append(thisChar);
         }
-        setString(out.toString());
+        return 1;
     }
 
     private char halfwidthSymbolToFull(char ch) {
@@ -24,8 +24,9 @@
 package com.iciao.kanada.maps;
 
 import com.iciao.kanada.JMapper;
-import com.iciao.kanada.Kanada;
+import com.iciao.kanada.Converter;
 
+import java.io.IOException;
 import java.util.Objects;
 
 /**
@@ -36,49 +37,60 @@ import java.util.Objects;
 public class MapHiragana extends JMapper {
     private static final KanaMapping kanaMapping = KanaMapping.getInstance();
 
-    public MapHiragana(Kanada kanada) {
-        super(kanada);
+    public MapHiragana(Converter converter, int option) {
+        super(converter, option);
     }
 
     @Override
-    protected void process(String str, int param) {
-        StringBuilder out = new StringBuilder();
-        int thisChar = str.codePointAt(0);
-        String kana = String.valueOf(Character.toChars(thisChar));
-        String transliteration = null;
-        if (param == TO_ASCII || param == TO_WIDE_ASCII || param == TO_KANA_BRAILLE) {
-            KanaTrie.MatchResult result = kanaMapping.getTransliterations(str);
-            if (result != null) {
-                transliteration = result.values()[getConversionSystem().getColumnIndex() - 2];
-                matchedLength = result.length();
+    protected boolean isSingleCharMapping() {
+        return option == TO_KATAKANA || option == TO_HALF_KATAKANA;
+    }
+
+    @Override
+    protected int[] getShift() {
+        return option == TO_KATAKANA ? new int[]{0x3040, 0x309f, 0x60} : null;
+    }
+
+    @Override
+    protected int process(CharSequence src, int start, Appendable out) throws IOException {
+        int thisChar = Character.codePointAt(src, start);
+        long match = KanaMapping.NOT_FOUND;
+        int matchedLength = 1;
+        if (option == TO_ASCII || option == TO_WIDE_ASCII || option == TO_KANA_BRAILLE) {
+            match = kanaMapping.findTransliteration(src, start);
+            if (match != KanaMapping.NOT_FOUND) {
+                matchedLength = KanaMapping.matchLength(match);
             }
         }
 
-        switch (param) {
+        switch (option) {
             case TO_KATAKANA:
-                out.appendCodePoint(thisChar + 0x60);
+                appendCodePoint(out, thisChar + 0x60);
                 break;
             case TO_HALF_KATAKANA:
+                String kana = String.valueOf(Character.toChars(thisChar));
                 String halfKatakana = kanaMapping.toHalfWidthKana(kana);
                 out.append(Objects.requireNonNullElse(halfKatakana, kana));
                 break;
             case TO_ASCII:
             case TO_WIDE_ASCII:
-                if (transliteration != null) {
-                    out.append(modeMacron() ? transliteration : kanaMapping.removeMacrons(transliteration));
+                if (match != KanaMapping.NOT_FOUND) {
+                    out.append(kanaMapping.getRomaji(match, getConversionSystem(), modeMacron(), false));
                 } else {
-                    out.append(kana);
+                    appendCodePoint(out, thisChar);
                 }
                 break;
             case TO_KANA_BRAILLE:
-                out.append(Objects.requireNonNullElse(transliteration, kana));
+                if (match != KanaMapping.NOT_FOUND) {
+                    out.append(kanaMapping.getTransliteration(match, getConversionSystem()));
+                } else {
+                    appendCodePoint(out, thisChar);
+                }
                 break;
             default:
-                out.appendCodePoint(thisChar);
+                appendCodePoint(out, thisChar);
                 break;
         }
-        setString(out.toString());
+        return matchedLength;
     }
-
-
-}
\ No newline at end of file
+}
@@ -24,7 +24,9 @@
 package com.iciao.kanada.maps;
 
 import com.iciao.kanada.JMapper;
-import com.iciao.kanada.Kanada;
+import com.iciao.kanada.Converter;
+
+import java.io.IOException;
 
 /**
  * Map fullwidth ASCII characters to halfwidth forms when appropriate.
@@ -33,32 +35,41 @@ import com.iciao.kanada.Kanada;
  */
 public class MapWideAscii extends JMapper {
 
-    public MapWideAscii(Kanada kanada) {
-        super(kanada);
+    public MapWideAscii(Converter converter, int option) {
+        super(converter, option);
+    }
+
+    @Override
+    protected boolean isSingleCharMapping() {
+        return option == JMapper.TO_ASCII;
+    }
+
+    @Override
+    protected int[] getShift() {
+        return option == JMapper.TO_ASCII ? new int[]{0xff00, 0xff5e, -0xfee0} : null;
     }
 
     @Override
-    protected void process(String str, int param) {
-        StringBuilder out = new StringBuilder();
-        int thisChar = str.codePointAt(0);
-        if (param == JMapper.TO_ASCII) {
+    protected int process(CharSequence src, int start, Appendable out) throws IOException {
+        int thisChar = Character.codePointAt(src, start);
+        if (option == JMapper.TO_ASCII) {
             if (thisChar >= 0xff00 && thisChar <= 0xff5e) {
-                out.appendCodePoint(thisChar - 0xfee0);
+                appendCodePoint(out, thisChar - 0xfee0);
             } else {
-                out.append(fullwidthSymbolToHalf(str.charAt(0)));
+                out.append(fullwidthSymbolToHalf(src.charAt(start)));
             }
-        } else if (param == JMapper.TO_KANA_BRAILLE) {
+        } else if (option == JMapper.TO_KANA_BRAILLE) {
             if (thisChar >= '０' && thisChar <= '９') {
-                out.append(fullwidthNumbersToBraille(str));
+                return fullwidthNumbersToBraille(src, start, out);
             } else if (thisChar >= 'Ａ' && thisChar <= 'Ｚ' || thisChar >= 'ａ' && thisChar <= 'ｚ') {
-                out.append(fullwidthAlphabetsToBraille(str));
+                return fullwidthAlphabetsToBraille(src, start, out);
             } else {
-                out.appendCodePoint(thisChar);
+                appendCodePoint(out, thisChar);
             }
         } else {
-            out.appendCodePoint(thisChar);
+            appendCodePoint(out, thisChar);
         }
-        setString(out.toString());
+        return 1;
     }
 
     private char fullwidthSymbolToHalf(char ch) {
@@ -74,38 +85,38 @@ public class MapWideAscii extends JMapper {
         };
     }
 
-    private String fullwidthAlphabetsToBraille(String str) {
+    private int fullwidthAlphabetsToBraille(CharSequence src, int start, Appendable out) throws IOException {
         int count = 0;
-        StringBuilder alphabets = new StringBuilder("⠦");
-        for (char c : str.toCharArray()) {
+        out.append('⠦');
+        for (int i = start; i < src.length(); i++) {
+            char c = src.charAt(i);
             if (c >= 'A' && c <= 'Z' || c >= 'ａ' && c <= 'ｚ' || c == '，' || c == '．') {
-                alphabets.append(FULLWIDTH_LATIN_TO_BRAILLE[c - 0xff00]);
+                out.append(FULLWIDTH_LATIN_TO_BRAILLE[c - 0xff00]);
                 count++;
             } else {
                 break;
             }
         }
-        matchedLength = count;
-        return alphabets.toString();
+        return count;
     }
 
-    private String fullwidthNumbersToBraille(String str) {
+    private int fullwidthNumbersToBraille(CharSequence src, int start, Appendable out) throws IOException {
         int count = 0;
-        StringBuilder numbers = new StringBuilder("⠼");
-        for (char c : str.toCharArray()) {
+        out.append('⠼');
+        for (int i = start; i < src.length(); i++) {
+            char c = src.charAt(i);
             if (c >= '０' && c <= '９' || c == '，' || c == '．' || c == ' ' || c == '\u2800') {
                 if (c == ' ' || c == '\u2800') {
-                    numbers.append('⠤');
+                    out.append('⠤');
                 } else {
-                    numbers.append(FULLWIDTH_LATIN_TO_BRAILLE[c - 0xff00]);
+                    out.append(FULLWIDTH_LATIN_TO_BRAILLE[c - 0xff00]);
                 }
                 count++;
             } else {
                 break;
             }
         }
-        matchedLength = count;
-        return numbers.toString();
+        return count;
     }
 
     /* A part of Halfwidth and Fullwidth Forms block
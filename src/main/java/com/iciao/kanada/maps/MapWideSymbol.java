@@ -24,7 +24,9 @@
 package com.iciao.kanada.maps;
 
 import com.iciao.kanada.JMapper;
-import com.iciao.kanada.Kanada;
+import com.iciao.kanada.Converter;
+
+import java.io.IOException;
 
 /**
  * Remap non-kanji characters.<br>
@@ -52,30 +54,34 @@ public class MapWideSymbol extends JMapper {
             "10", "20", "30", "(repeat)", "(masu mark)", "♪", " ", " "
     };
 
-    public MapWideSymbol(Kanada kanada) {
-        super(kanada);
+    public MapWideSymbol(Converter converter, int option) {
+        super(converter, option);
+    }
+
+    @Override
+    protected boolean isSingleCharMapping() {
+        return true;
     }
 
     @Override
-    protected void process(String str, int param) {
-        StringBuilder out = new StringBuilder();
-        char thisChar = str.charAt(0);
+    protected int process(CharSequence src, int start, Appendable out) throws IOException {
+        char thisChar = src.charAt(start);
         Character.UnicodeBlock block = Character.UnicodeBlock.of(thisChar);
         if (block == Character.UnicodeBlock.CJK_SYMBOLS_AND_PUNCTUATION) {
             int index = thisChar - 0x3000;
-            if (param == JMapper.TO_ASCII) {
+            if (option == JMapper.TO_ASCII) {
                 out.append(CJK_SYMBOLS_AND_PUNCTUATION_TO_ASCII[index]);
-            } else if (param == JMapper.TO_HALF_SYMBOL) {
+            } else if (option == JMapper.TO_HALF_SYMBOL) {
                 out.append(cjkSymbolsAndPunctuationToHalfSymbol(thisChar));
-            } else if (param == JMapper.TO_KANA_BRAILLE) {
+            } else if (option == JMapper.TO_KANA_BRAILLE) {
                 out.append(cjkSymbolsAndPunctuationToBraille(thisChar));
             } else {
-                out.appendCodePoint(thisChar);
+                out.append(thisChar);
             }
         } else {
-            out.appendCodePoint(thisChar);
+            out.append(thisChar);
         }
-        setString(out.toString());
+        return 1;
     }
 
     private String cjkSymbolsAndPunctuationToHalfSymbol(char ch) {
@@ -0,0 +1,135 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2025 Masahiko Sato
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.iciao.kanada;
+
+import com.iciao.kanada.llm.LlmClient;
+import com.iciao.kanada.llm.LlmConfig;
+import com.iciao.kanada.llm.OllamaClient;
+import com.iciao.kanada.llm.ReadingRequest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * LLM client for the tests, which selects the last possible reading and records the requests.<br>
+ * The asynchronous answers can be delayed or withheld, and the requests can be made to fail or to be rejected
+ * by a limit of the client.
+ *
+ * @author Masahiko Sato
+ */
+class FakeLlmClient implements LlmClient {
+    // Number of readings selected, and the context of each
+    final AtomicInteger calls = new AtomicInteger();
+    final List<String> contexts = Collections.synchronizedList(new ArrayList<>());
+    // Number of words in each batch
+    final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+    // Number of the next requests that fail
+    final AtomicInteger failures = new AtomicInteger();
+    // Number of the next requests that are not sent because of the token budget
+    final AtomicInteger rejections = new AtomicInteger();
+    // Asynchronous requests waiting for their delayed answers
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private long delayMillis;
+    private boolean answers = true;
+
+    /**
+     * Answer the asynchronous requests after the given delay.
+     */
+    FakeLlmClient withDelay(long millis) {
+        delayMillis = millis;
+        return this;
+    }
+
+    /**
+     * Never answer the asynchronous requests.
+     */
+    FakeLlmClient withoutAnswers() {
+        answers = false;
+        return this;
+    }
+
+    public boolean testConnection() {
+        return true;
+    }
+
+    public String getModel() {
+        return "test";
+    }
+
+    public String selectBestReading(String kanji, List<String> possibleReadings, String context)
+            throws IOException, InterruptedException {
+        calls.incrementAndGet();
+        contexts.add(context);
+        if (rejections.getAndDecrement() > 0) {
+            return rejectingClient().selectBestReading(kanji, possibleReadings, context);
+        }
+        if (failures.getAndDecrement() > 0) {
+            throw new IOException("Service unavailable");
+        }
+        return possibleReadings.get(possibleReadings.size() - 1);
+    }
+
+    /**
+     * @return An Ollama client whose token budget is too small for any request, which is never sent
+     */
+    private static LlmClient rejectingClient() throws IOException {
+        LlmConfig.ModelConfig modelConfig = new LlmConfig.ModelConfig();
+        modelConfig.rateLimits = new LlmConfig.RateLimits();
+        modelConfig.rateLimits.tokenBudget = 1L;
+        LlmConfig.getInstance().getOllama().models.put("rejected", modelConfig);
+        return new OllamaClient("http://127.0.0.1:9", "rejected");
+    }
+
+    public List<String> selectBestReadings(List<ReadingRequest> requests) throws IOException, InterruptedException {
+        batchSizes.add(requests.size());
+        return LlmClient.super.selectBestReadings(requests);
+    }
+
+    public CompletableFuture<String> selectBestReadingAsync(String kanji, List<String> possibleReadings, String context) {
+        if (!answers) {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        }
+        if (delayMillis == 0) {
+            return LlmClient.super.selectBestReadingAsync(kanji, possibleReadings, context);
+        }
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        return CompletableFuture.supplyAsync(() -> {
+            inFlight.decrementAndGet();
+            try {
+                return selectBestReading(kanji, possibleReadings, context);
+            } catch (IOException | InterruptedException e) {
+                throw new CompletionException(e);
+            }
+        }, CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS));
+    }
+}
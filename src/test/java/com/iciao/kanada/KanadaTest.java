@@ -23,9 +23,42 @@
  */
 package com.iciao.kanada;
 
+import com.google.gson.Gson;
+import com.iciao.kanada.llm.CachingLlmClient;
+import com.iciao.kanada.llm.LlmClient;
+import com.iciao.kanada.llm.OllamaClient;
+import com.iciao.kanada.llm.ReadingRequest;
+import com.iciao.kanada.llm.ResilientLlmClient;
+import com.iciao.kanada.maps.KanaMapping;
+import com.sun.net.httpserver.HttpServer;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.Assert.*;
 
 public class KanadaTest {
@@ -186,4 +219,546 @@ public class KanadaTest {
 
         assertEquals(text, hiragana.process(tenji));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testParallelConversion() throws Exception {
+        String text = """
+                日本語の文章を変換します。東京都に住んでいます！本当？
+                今日は良い天気ですね。明日も晴れるでしょう。上手に書けました。
+                コンピューターとソフトウェアのカタログ、セール中です。
+                """.repeat(20);
+        Kanada converter = new Kanada().toRomaji().withSpaces().upperCaseFirst();
+        String expected = converter.process(text);
+        for (int chunkSize : new int[]{1, 10, 100}) {
+            StringWriter writer = new StringWriter();
+            new ParallelParser(converter.build(), 4, chunkSize).parse(new StringReader(text), writer);
+            assertEquals(expected, writer.toString());
+        }
+        assertEquals(expected, converter.withParallelism(4).process(text));
+    }
+
+    @Test
+    public void testParallelConversionWithoutTerminators() throws Exception {
+        String text = "東京都に住んでいます 取り扱い、上手に書けました Hello world, 日本語 ".repeat(40);
+        for (Kanada converter : List.of(new Kanada().toRomaji().withSpaces().upperCaseFirst(),
+                new Kanada().toHiragana().withSpaces('|'), new Kanada().toKanaTenji())) {
+            String expected = converter.process(text);
+            ParallelParser parser = new ParallelParser(converter.build(), 4, 10);
+            int end = parser.findChunkEnd(text, 0, text.length());
+            assertTrue(end > 0 && end <= 10 * ParallelParser.MAX_CHUNK_FACTOR + 10);
+            StringWriter writer = new StringWriter();
+            parser.parse(new StringReader(text), writer);
+            assertEquals(expected, writer.toString());
+        }
+    }
+
+    @Test
+    public void testBuiltConverter() {
+        Kanada builder = Kanada.create().toRomaji().withSpaces();
+        Converter converter = builder.build();
+        String expected = converter.process("東京に住んでいます。");
+        builder.upperCaseAll();
+        assertEquals(expected, converter.process("東京に住んでいます。"));
+        assertEquals(expected.toUpperCase(), builder.process("東京に住んでいます。"));
+    }
+
+    @Test
+    public void testLongVowels() throws Exception {
+        String text = "コーヒーとスーパー";
+        assertEquals("kōhītosūpā", new Kanada().toRomaji().withMacrons().process(text));
+        assertEquals("kohitosupa", new Kanada().toRomaji().process(text));
+        assertEquals("kôhîtosûpâ", new Kanada().toRomaji().romanizationSystem(KanaMapping.ConversionSystem.KUNREI).withMacrons().process(text));
+    }
+
+    @Test
+    public void testSupplementaryCharacters() {
+        assertEquals("𠮷のいえ", Kanada.create().toHiragana().process("𠮷野家"));
+        assertEquals("a𠮷b😀", Kanada.create().process("a𠮷b😀"));
+        assertEquals("𠮷 to 😀", Kanada.create().toRomaji().withSpaces().process("𠮷と😀"));
+    }
+
+    @Test
+    public void testMultiConverter() {
+        String text = "東京に住んでいます。カタカナとひらがな";
+        Converter[] converters = {
+                Kanada.create().toHiragana().build(),
+                Kanada.create().toKatakana().build(),
+                Kanada.create().toRomaji().withSpaces().build(),
+                Kanada.create().toRomaji().romanizationSystem(KanaMapping.ConversionSystem.KUNREI).build()
+        };
+        String[] results = new MultiConverter(converters).process(text);
+        for (int i = 0; i < converters.length; i++) {
+            assertEquals(converters[i].process(text), results[i]);
+        }
+    }
+
+    @Test
+    public void testTokenIterator() {
+        String text = "進撃の巨人 ABC";
+        Converter converter = Kanada.create().toRomaji().build();
+        TokenIterator tokens = converter.tokenize(text);
+        StringBuilder converted = new StringBuilder();
+        int end = 0;
+        while (tokens.hasNext()) {
+            Token token = tokens.next();
+            assertEquals(end, token.start());
+            end = token.end();
+            converted.append(token.converted());
+        }
+        assertEquals(text.length(), end);
+        assertEquals(converter.process(text), converted.toString());
+
+        Token first = converter.tokenize(text).next();
+        assertEquals(0, first.start());
+        assertEquals(2, first.end());
+        assertEquals("しんげき", first.reading().toString());
+        assertEquals("shingeki", first.converted().toString());
+        assertTrue(first.isDictionaryWord());
+    }
+
+    @Test
+    public void testTokensJoinUpToOutput() {
+        String[] texts = {"「新しい、本」です。", "\"新しい\",と言った", "私は学生です。Hello world, 日本語 テスト"};
+        for (Converter converter : List.of(Kanada.create().toKanaTenji().build(),
+                Kanada.create().toRomaji().upperCaseFirst().build())) {
+            for (String text : texts) {
+                StringBuilder converted = new StringBuilder();
+                TokenIterator tokens = converter.tokenize(text);
+                while (tokens.hasNext()) {
+                    converted.append(tokens.next().converted());
+                }
+                assertEquals(converter.process(text), converted.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testAlignment() {
+        Converter converter = Kanada.create().toRomaji().build();
+        Alignment alignment = new Alignment();
+        assertEquals("shingekinokyojin", converter.process("進撃の巨人", alignment));
+        assertEquals(4, alignment.size());
+        assertEquals(3, alignment.toSource(10));
+        assertEquals(5, alignment.toSourceEnd(12));
+        assertEquals(8, alignment.toOutput(2));
+        assertEquals(16, alignment.toOutputEnd(5));
+    }
+
+    @Test
+    public void testWrappedReader() throws Exception {
+        String text = "東京に住んでいます。\nカタカナとひらがな。\n進撃の巨人";
+        Kanada kanada = Kanada.create().toRomaji().withSpaces();
+        StringBuilder result = new StringBuilder();
+        try (Reader reader = kanada.wrap(new StringReader(text))) {
+            char[] chars = new char[3];
+            int read;
+            while ((read = reader.read(chars)) != -1) {
+                result.append(chars, 0, read);
+            }
+        }
+        assertEquals(kanada.process(text), result.toString());
+    }
+
+    @Test
+    public void testConvertIntoArray() {
+        Converter converter = Kanada.create().toRomaji().build();
+        char[] dst = new char[12];
+        assertEquals(-7, converter.convert("[東京都]", 1, 3, dst, 6));
+        assertEquals(7, converter.convert("[東京都]", 1, 3, dst, 2));
+        assertEquals("tokyoto", new String(dst, 2, 7));
+    }
+
+    @Test
+    public void testRepeatedConversionMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 1000; i++) {
+            Kanada.create().toRomaji().process("東京に住んでいます。");
+        }
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        for (int i = 0; i < 20000; i++) {
+            // A new converter is built for every call.
+            Kanada.create().toRomaji().process("東京に住んでいます。");
+        }
+        System.gc();
+        long after = runtime.totalMemory() - runtime.freeMemory();
+        assertTrue("Retained " + (after - before) + " bytes", after - before < 16 * 1024 * 1024);
+    }
+
+    @Test
+    public void testBuilderKeepsCaches() {
+        Kanada kanada = Kanada.create().toRomaji();
+        kanada.process("東京のカタカナ");
+        DispatchTable table = kanada.converter().dispatchTable;
+        kanada.process(new StringReader("東京のカタカナ"));
+        assertSame(table, kanada.converter().dispatchTable);
+        kanada.withSpaces();
+        assertNotSame(table, kanada.converter().dispatchTable);
+    }
+
+    @Test
+    public void testTokenizeAllocation() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Converter converter = Kanada.create().toRomaji().build();
+        String sentences = "今日は生物の本を読んだ。東京都に住んでいます。";
+        String shortText = sentences.repeat(100);
+        String longText = sentences.repeat(200);
+        for (int i = 0; i < 500; i++) {
+            countTokens(converter, shortText);
+            countTokens(converter, longText);
+        }
+        // The difference between the two texts leaves out what is allocated once for every text.
+        long start = threads.getCurrentThreadAllocatedBytes();
+        int shortTokens = countTokens(converter, shortText);
+        long middle = threads.getCurrentThreadAllocatedBytes();
+        int longTokens = countTokens(converter, longText);
+        long end = threads.getCurrentThreadAllocatedBytes();
+        long perToken = ((end - middle) - (middle - start)) / (longTokens - shortTokens);
+        assertTrue("Allocated " + perToken + " bytes per token", perToken < 64);
+    }
+
+    private static int countTokens(Converter converter, String text) {
+        TokenIterator tokens = converter.tokenize(text);
+        int count = 0;
+        while (tokens.hasNext()) {
+            tokens.next();
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testUtf8Conversion() throws Exception {
+        String text = "東京に住んでいます。\nÀＡカタカナ";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        Converter converter = Kanada.create().toRomaji().withSpaces().build();
+        Utf8Converter utf8 = new Utf8Converter(converter);
+        ByteBuffer out = ByteBuffer.allocate(256);
+        // Feed a byte at a time to split the multibyte characters.
+        for (int i = 0; i < bytes.length; i++) {
+            utf8.convert(ByteBuffer.wrap(bytes, i, 1), out, i == bytes.length - 1);
+        }
+        assertTrue(utf8.isFinished());
+        assertEquals(converter.process(text), new String(out.array(), 0, out.position(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCachingLlmClient() throws Exception {
+        FakeLlmClient client = new FakeLlmClient();
+        Path cacheFile = Files.createTempFile("kanada", ".cache");
+        try {
+            try (CachingLlmClient cache = new CachingLlmClient(client, 10, cacheFile)) {
+                assertEquals("じょうず", cache.selectBestReading("上手", List.of("うわて", "じょうず"), "[[上手]]に書けました"));
+                assertEquals("じょうず", cache.selectBestReading("上手", List.of("じょうず", "うわて"), "[[上手]]に 書けました"));
+                assertEquals(1, client.calls.get());
+            }
+            try (CachingLlmClient cache = new CachingLlmClient(client, 10, cacheFile)) {
+                assertEquals("じょうず", cache.selectBestReading("上手", List.of("うわて", "じょうず"), "[[上手]]に書けました"));
+                assertEquals(1, client.calls.get());
+                assertEquals(1, cache.getHitCount());
+            }
+        } finally {
+            Files.deleteIfExists(cacheFile);
+        }
+    }
+
+    @Test
+    public void testDocumentLlm() {
+        FakeLlmClient client = new FakeLlmClient();
+        String text = "上手に書けました。上手に書けました。";
+        String inline = Kanada.create().toHiragana().withLlmClient(client).process(text);
+        int inlineRequests = client.contexts.size();
+        client.contexts.clear();
+        String twoPass = Kanada.create().toHiragana().withLlmClient(client).withDocumentLlm(4).process(text);
+        assertEquals(inline, twoPass);
+        assertTrue(inlineRequests >= 2);
+        assertEquals(inlineRequests / 2, client.contexts.size());
+    }
+
+    @Test
+    public void testReadingResolverDeduplication() throws Exception {
+        FakeLlmClient client = new FakeLlmClient();
+        ReadingResolver resolver = new ReadingResolver();
+        List<String> readings = List.of("うわて", "じょうず");
+        for (int i = 0; i < 10; i++) {
+            resolver.getReading("上手", readings, "[[上手]]に書けました");
+        }
+        for (int i = 0; i < 5; i++) {
+            resolver.getReading("上手", readings, "[[上手]]に書けました" + i);
+        }
+        resolver.getReading("今日", List.of("きょう", "こんにち"), "[[今日]]は晴れ");
+        resolver.getReading("今日", List.of("きょう", "こんにち"), "[[今日]] は晴れ");
+
+        // A word is sent once for each of its most frequent contexts, and a repeated context only once.
+        assertEquals(1, resolver.getRequestCount());
+        resolver.resolve(client, 2, LlmBudget.NO_DEADLINE);
+        assertEquals(List.of(ReadingResolver.MAX_CONTEXTS + 1), client.batchSizes);
+        assertEquals(ReadingResolver.MAX_CONTEXTS + 1, client.contexts.size());
+        assertEquals(ReadingResolver.MAX_CONTEXTS + 1, new HashSet<>(client.contexts).size());
+        assertEquals("じょうず", resolver.getReading("上手", readings, "[[上手]]に書けました4"));
+        assertEquals("こんにち", resolver.getReading("今日", List.of("きょう", "こんにち"), "[[今日]]は晴れ"));
+    }
+
+    @Test
+    public void testBatchedLlm() {
+        FakeLlmClient client = new FakeLlmClient();
+        String text = "上手に書けました。今日は生物の本を読んだ。人々は喜んだ。";
+        String inline = Kanada.create().toHiragana().withLlmClient(client).process(text);
+        assertTrue(client.batchSizes.isEmpty());
+        String twoPass = Kanada.create().toHiragana().withLlmClient(client).withDocumentLlm(4).process(text);
+        assertEquals(inline, twoPass);
+        assertEquals(1, client.batchSizes.size());
+        assertTrue(client.batchSizes.get(0) > 1);
+    }
+
+    @Test
+    public void testPipelinedLlm() {
+        FakeLlmClient client = new FakeLlmClient().withDelay(10);
+        String text = "上手に書けました。今日は生物の本を読んだ。人々は喜んだ。".repeat(3);
+        String inline = Kanada.create().toRomaji().withSpaces().upperCaseFirst().withLlmClient(client).process(text);
+        String furigana = Kanada.create().withFurigana().withLlmClient(client).process(text);
+        assertEquals(0, client.maxInFlight.get());
+        assertEquals(inline, Kanada.create().toRomaji().withSpaces().upperCaseFirst().withLlmClient(client)
+                .withLlmPipeline(3).process(text));
+        assertEquals(furigana, Kanada.create().withFurigana().withLlmClient(client).withLlmPipeline(3).process(text));
+        assertTrue(client.maxInFlight.get() > 1);
+        assertTrue(client.maxInFlight.get() <= 3);
+    }
+
+    @Test
+    public void testLlmRequestLimit() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        server.setExecutor(executor);
+        server.createContext("/api/generate", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            byte[] body = "{\"response\": \"きょう\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        try {
+            LlmClient client = new OllamaClient("http://127.0.0.1:" + server.getAddress().getPort(), "test");
+            List<CompletableFuture<String>> readings = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                readings.add(client.selectBestReadingAsync("今日", List.of("こんにち", "きょう"), "[[今日]]は晴れ"));
+            }
+            for (CompletableFuture<String> reading : readings) {
+                assertEquals("きょう", reading.get());
+            }
+            // The default limit of requests in flight for Ollama
+            assertTrue(maxInFlight.get() <= 2);
+        } finally {
+            server.stop(0);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testIndexedLlmAnswer() throws Exception {
+        List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        List<String> answers = List.of("2", "{\"index\": 1}", "<think>\n\n</think>\n\n2) こんにち", "こんにち",
+                "{\"indexes\": [2, 1]}");
+        AtomicInteger next = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/generate", exchange -> {
+            requests.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            String answer = answers.get(next.getAndIncrement());
+            byte[] body = new Gson().toJson(Map.of("response", answer)).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        try {
+            LlmClient client = new OllamaClient("http://127.0.0.1:" + server.getAddress().getPort(), "test");
+            List<String> readings = List.of("きょう", "こんにち");
+            assertEquals("こんにち", client.selectBestReading("今日", readings, "[[今日]]は"));
+            assertEquals("きょう", client.selectBestReading("今日", readings, "[[今日]]は"));
+            assertEquals("こんにち", client.selectBestReading("今日", readings, "[[今日]]は"));
+            // An answer with the reading itself is accepted as well.
+            assertEquals("こんにち", client.selectBestReading("今日", readings, "[[今日]]は"));
+            assertEquals(List.of("こんにち", "じょうず"), client.selectBestReadings(List.of(
+                    new ReadingRequest("今日", readings, "[[今日]]は"),
+                    new ReadingRequest("上手", List.of("じょうず", "うわて"), "[[上手]]に"))));
+
+            // The readings are numbered, and the answer is capped and constrained.
+            assertTrue(requests.get(0).contains("1) きょう / 2) こんにち"));
+            assertTrue(requests.get(0).contains("\"num_predict\":16"));
+            assertTrue(requests.get(0).contains("\"enum\":[1,2]"));
+            assertTrue(requests.get(4).contains("\"num_predict\":32"));
+            assertTrue(requests.get(4).contains("\"indexes\""));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testStreamedLlmAnswer() throws Exception {
+        CountDownLatch finished = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        server.setExecutor(executor);
+        server.createContext("/api/generate", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (String piece : List.of("<think>\n\n</think>", "\n\n", "2", "\n")) {
+                    out.write((new Gson().toJson(Map.of("response", piece, "done", false)) + "\n")
+                            .getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+                // The rest of the answer is never needed.
+                finished.await(10, TimeUnit.SECONDS);
+            } catch (IOException | InterruptedException e) {
+                // Cancelled by the client
+            }
+        });
+        server.start();
+        try {
+            LlmClient client = new OllamaClient("http://127.0.0.1:" + server.getAddress().getPort(), "test");
+            long start = System.nanoTime();
+            assertEquals("こんにち", client.selectBestReading("今日", List.of("きょう", "こんにち"), "[[今日]]は"));
+            assertEquals("こんにち", client.selectBestReadingAsync("今日", List.of("きょう", "こんにち"), "[[今日]]は")
+                    .get(5, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        } finally {
+            finished.countDown();
+            server.stop(0);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testResilientLlmClient() throws Exception {
+        FakeLlmClient flaky = new FakeLlmClient();
+        flaky.failures.set(2);
+        ResilientLlmClient client = new ResilientLlmClient(flaky)
+                .withRetries(2, Duration.ofMillis(1))
+                .withCircuitBreaker(3, Duration.ofMillis(100));
+        List<String> readings = List.of("こんにち", "きょう");
+        assertEquals("きょう", client.selectBestReading("今日", readings, "[[今日]]は晴れ"));
+        assertEquals(3, flaky.calls.get());
+
+        // The circuit opens after 3 consecutive failures and fails at once until the probe.
+        flaky.failures.set(Integer.MAX_VALUE);
+        flaky.calls.set(0);
+        assertThrows(IOException.class, () -> client.selectBestReading("今日", readings, "[[今日]]は晴れ"));
+        assertEquals(3, flaky.calls.get());
+        assertTrue(client.isCircuitOpen());
+        assertThrows(IOException.class, () -> client.selectBestReading("今日", readings, "[[今日]]は晴れ"));
+        assertEquals(3, flaky.calls.get());
+        assertEquals(Kanada.create().toHiragana().process("今日"),
+                Kanada.create().toHiragana().withLlmClient(client).process("今日"));
+        assertEquals(3, flaky.calls.get());
+
+        Thread.sleep(150);
+        flaky.failures.set(0);
+        assertEquals("きょう", client.selectBestReadingAsync("今日", readings, "[[今日]]は晴れ").get());
+        assertFalse(client.isCircuitOpen());
+    }
+
+    @Test
+    public void testCircuitBreakerProbeRejectedByLimit() throws Exception {
+        FakeLlmClient flaky = new FakeLlmClient();
+        ResilientLlmClient client = new ResilientLlmClient(flaky)
+                .withRetries(0, Duration.ZERO)
+                .withCircuitBreaker(1, Duration.ofMillis(100));
+        List<String> readings = List.of("こんにち", "きょう");
+        flaky.failures.set(1);
+        assertThrows(IOException.class, () -> client.selectBestReading("今日", readings, "[[今日]]は晴れ"));
+        assertTrue(client.isCircuitOpen());
+
+        // A probe not sent because of the token budget leaves the circuit open until the next probe.
+        Thread.sleep(150);
+        flaky.rejections.set(1);
+        assertThrows(IOException.class, () -> client.selectBestReading("今日", readings, "[[今日]]は晴れ"));
+        assertTrue(client.isCircuitOpen());
+        Thread.sleep(150);
+        assertEquals("きょう", client.selectBestReading("今日", readings, "[[今日]]は晴れ"));
+        assertFalse(client.isCircuitOpen());
+
+        flaky.failures.set(1);
+        assertThrows(ExecutionException.class, () -> client.selectBestReadingAsync("今日", readings, "[[今日]]は晴れ").get());
+        Thread.sleep(150);
+        flaky.rejections.set(1);
+        assertThrows(ExecutionException.class, () -> client.selectBestReadingAsync("今日", readings, "[[今日]]は晴れ").get());
+        assertTrue(client.isCircuitOpen());
+        Thread.sleep(150);
+        assertEquals("きょう", client.selectBestReadingAsync("今日", readings, "[[今日]]は晴れ").get());
+        assertFalse(client.isCircuitOpen());
+    }
+
+    @Test
+    public void testLlmDeadline() {
+        FakeLlmClient client = new FakeLlmClient().withoutAnswers();
+        String text = "上手に書けました。今日は生物の本を読んだ。人々は喜んだ。";
+        String dictionary = Kanada.create().toRomaji().withSpaces().process(text);
+
+        long start = System.nanoTime();
+        assertEquals(dictionary, Kanada.create().toRomaji().withSpaces().withLlmClient(client)
+                .withLlmDeadline(Duration.ofMillis(100)).process(text));
+        assertEquals(dictionary, Kanada.create().toRomaji().withSpaces().withLlmClient(client).withLlmPipeline(3)
+                .withLlmDeadline(Duration.ofMillis(100)).process(text));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+        // The words found while a request is in flight are read from the dictionary.
+        client.calls.set(0);
+        assertEquals(dictionary, Kanada.create().toRomaji().withSpaces().withLlmClient(client).withLlmPipeline(3)
+                .withLlmLoadShedding(1).withLlmDeadline(Duration.ofMillis(100)).process(text));
+        assertEquals(1, client.calls.get());
+        assertThrows(IllegalArgumentException.class, () -> Kanada.create().withLlmDeadline(Duration.ZERO));
+    }
+
+    @Test
+    public void testLlmLoadSheddingAcrossConversions() {
+        FakeLlmClient client = new FakeLlmClient().withoutAnswers();
+        Kanada kanada = Kanada.create().toRomaji().withLlmClient(client)
+                .withLlmLoadShedding(1).withLlmDeadline(Duration.ofMillis(10));
+        String text = "上手に書けました。今日は生物の本を読んだ。";
+        String dictionary = Kanada.create().toRomaji().process(text);
+
+        // The unanswered request of the first conversion keeps the words of the next ones from the LLM.
+        for (int i = 0; i < 20; i++) {
+            assertEquals(dictionary, kanada.process(text));
+        }
+        assertEquals(1, client.calls.get());
+
+        // Changing an option starts a new converter with its own budget.
+        kanada.withSpaces();
+        kanada.process(text);
+        assertEquals(2, client.calls.get());
+    }
+
+    @Test
+    public void testLlmDeadlineWithFailingProvider() throws Exception {
+        FakeLlmClient client = new FakeLlmClient().withDelay(100);
+        client.failures.set(Integer.MAX_VALUE);
+        Kanada kanada = Kanada.create().toRomaji().withLlmClient(client).withLlmDeadline(Duration.ofMillis(30));
+        String text = "上手に書けました。今日は生物の本を読んだ。";
+        String dictionary = Kanada.create().toRomaji().process(text);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(dictionary, kanada.process(text));
+        }
+        Thread.sleep(300);
+        int calls = client.calls.get();
+        assertTrue(calls >= 10);
+
+        // The failures took longer than the time budget, so the next words are not sent.
+        for (int i = 0; i < 5; i++) {
+            assertEquals(dictionary, kanada.process(text));
+        }
+        Thread.sleep(300);
+        assertEquals(calls, client.calls.get());
+    }
+}
@@ -1,27 +1,31 @@
 #!/usr/bin/env python3
 """
-Generate KanaMappingData.java from kanatable.tsv
+Compile kanatable.tsv into kanatable.bin, the kana transliteration trie loaded by KanaTrie
 
 Copyright (C) 2025 Masahiko Sato
 Licensed under the MIT License - see MIT-LICENSE file for details.
+
+All numbers are big-endian.
+  int    magic 'KANA', short version
+  int    column count
+  int    string count, then for each string: char length, UTF-16 chars
+  int    node count, int child start of each node and one past the last node,
+         char child character of each edge (edge e leads to node e + 1),
+         int value index of each node or -1
+  int    value count, then for each value: char string index of each column
 """
 import csv
 import os
+import struct
 
+MAGIC = 0x4B414E41
+VERSION = 1
 
-def escape_java_string(s):
-    """Escape string for Java code"""
-    return s.replace('\\', '\\\\').replace('"', '\\"')
-
-
-def generate_mapping():
-    tsv_path = os.path.join(os.path.dirname(__file__), 'mappings', 'kanatable.tsv')
-    java_path = os.path.join(os.path.dirname(__file__), '..', 'src', 'main', 'java', 'com', 'iciao', 'kanada', 'maps',
-                             'KanaMappingData.java')
-
-    hiragana_entries = []
-    katakana_entries = []
 
+def read_table(tsv_path):
+    """Read the kana table and return the mappings in insertion order; later keys win"""
+    hiragana_map = {}
+    katakana_map = {}
     with open(tsv_path, 'r', encoding='utf-8') as f:
         reader = csv.reader(f, delimiter='\t')
         next(reader)  # Skip header
@@ -29,86 +33,81 @@ def generate_mapping():
         for row in reader:
             if len(row) >= 9:
                 hiragana, katakana = row[0], row[1]
-                values = row[2:9]  # 6 romanization and 1 braille systems
-
-                # Create array string
-                array_str = ', '.join(f'"{escape_java_string(r)}"' for r in values)
-
-                hiragana_entries.append(
-                    f'        hiraganaMap.put("{escape_java_string(hiragana)}", new String[]{{{array_str}}});')
-                katakana_entries.append(
-                    f'        katakanaMap.put("{escape_java_string(katakana)}", new String[]{{{array_str}}});')
-
-    # Generate Java code
-    java_code = f'''/**
- * MIT License
- *
- * Copyright (C) 2025 Masahiko Sato
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in all
- * copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
- * SOFTWARE.
- */
- package com.iciao.kanada.maps;
-
-import java.util.HashMap;
-import java.util.Map;
-
-/**
- * Contains kana mapping data for multiple romanization systems.
- * Auto-generated from kanatable.tsv - DO NOT EDIT MANUALLY
- */
-class KanaMappingData {{
-
-    private final Map<String, String[]> hiraganaMap = new HashMap<>();
-    private final Map<String, String[]> katakanaMap = new HashMap<>();
-    private final KanaTrie trie = new KanaTrie();
-
-    KanaMappingData() {{
-        initializeMappings();
-        initializeTrie();    
-    }}
-    
-    private void initializeTrie() {{
-        for (Map.Entry<String, String[]> entry : hiraganaMap.entrySet()) {{
-            trie.insert(entry.getKey(), entry.getValue());
-        }}
-        for (Map.Entry<String, String[]> entry : katakanaMap.entrySet()) {{
-            trie.insert(entry.getKey(), entry.getValue());
-        }}
-    }}
-
-    private void initializeMappings() {{
-        // Generated from kanatable.tsv
-{chr(10).join(hiragana_entries)}
-        
-{chr(10).join(katakana_entries)}
-    }}
-    
-    KanaTrie.MatchResult getTransliterations(String str) {{
-        return trie.searchLongest(str);
-    }}
-    
-}}'''
-
-    with open(java_path, 'w', encoding='utf-8') as f:
-        f.write(java_code)
-
-    print(f"Generated {len(hiragana_entries)} hiragana and {len(katakana_entries)} katakana mappings")
+                values = tuple(row[2:9])  # 6 romanization and 1 braille systems
+                hiragana_map[hiragana] = values
+                katakana_map[katakana] = values
+    entries = dict(hiragana_map)
+    entries.update(katakana_map)
+    return entries
+
+
+def build_trie(entries):
+    """Number the nodes breadth-first so that the children of each node are consecutive"""
+    root = {'children': {}, 'value': -1}
+    values = []
+    for key, columns in entries.items():
+        node = root
+        for c in key:
+            node = node['children'].setdefault(c, {'children': {}, 'value': -1})
+        node['value'] = len(values)
+        values.append(columns)
+
+    nodes = [root]
+    for node in nodes:
+        nodes.extend(node['children'][c] for c in sorted(node['children']))
+
+    child_start = []
+    child_chars = []
+    for node in nodes:
+        child_start.append(len(child_chars))
+        child_chars.extend(sorted(node['children']))
+    child_start.append(len(child_chars))
+    node_values = [node['value'] for node in nodes]
+    return child_start, child_chars, node_values, values
+
+
+def utf16(s):
+    return s.encode('utf-16-be')
+
+
+def generate_mapping():
+    tools_dir = os.path.dirname(__file__)
+    tsv_path = os.path.join(tools_dir, 'mappings', 'kanatable.tsv')
+    bin_path = os.path.join(tools_dir, '..', 'src', 'main', 'resources', 'com', 'iciao', 'kanada', 'maps',
+                            'kanatable.bin')
+
+    entries = read_table(tsv_path)
+    child_start, child_chars, node_values, values = build_trie(entries)
+
+    strings = []
+    string_index = {}
+    for columns in values:
+        for s in columns:
+            if s not in string_index:
+                string_index[s] = len(strings)
+                strings.append(s)
+
+    out = bytearray()
+    out += struct.pack('>ih', MAGIC, VERSION)
+    out += struct.pack('>i', len(values[0]))
+    out += struct.pack('>i', len(strings))
+    for s in strings:
+        encoded = utf16(s)
+        out += struct.pack('>H', len(encoded) // 2) + encoded
+    out += struct.pack('>i', len(node_values))
+    out += struct.pack(f'>{len(child_start)}i', *child_start)
+    out += utf16(''.join(child_chars))
+    out += struct.pack(f'>{len(node_values)}i', *node_values)
+    out += struct.pack('>i', len(values))
+    for columns in values:
+        out += struct.pack(f'>{len(columns)}H', *(string_index[s] for s in columns))
+
+    os.makedirs(os.path.dirname(bin_path), exist_ok=True)
+    with open(bin_path, 'wb') as f:
+        f.write(out)
+
+    print(f"Compiled {len(entries)} kana sequences into {len(node_values)} nodes and {len(strings)} strings "
+          f"({len(out)} bytes)")
 
 
 if __name__ == '__main__':